@@ -0,0 +1,80 @@
+package org.pharmgkb.ant;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmark for {@link ResultFormatter#filterErrorTrace(PrintWriter, String, Throwable)}.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FilterErrorTraceBenchmark {
+  /** Number of stack frames from this class in the trace. */
+  @Param({"10", "100", "1000"})
+  public int depth;
+
+  private Throwable m_error;
+  private final PrintWriter m_writer = new PrintWriter(new NullWriter());
+
+
+  @Setup
+  public void setUp() {
+    try {
+      recurse(depth);
+    } catch (RuntimeException ex) {
+      m_error = new IllegalStateException("wrapped", ex);
+    }
+  }
+
+  private static void recurse(int depth) {
+    if (depth <= 1) {
+      throw new RuntimeException("boom");
+    }
+    recurse(depth - 1);
+  }
+
+
+  @Benchmark
+  public PrintWriter filterErrorTrace() {
+    ResultFormatter.filterErrorTrace(m_writer, FilterErrorTraceBenchmark.class.getName(), m_error);
+    return m_writer;
+  }
+
+
+  private static final class NullWriter extends Writer {
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package org.pharmgkb.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.optional.junitlauncher.TestExecutionContext;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmark for the {@link JupiterResultFormatter} listener callbacks, driven by a simulated test plan.  Each
+ * operation runs a whole plan, in which 1% of tests fail.
+ * <p>
+ * To measure the formatter rather than I/O, console output is discarded and the test index is turned off.  The
+ * report itself is still written once per plan.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JupiterResultFormatterBenchmark {
+  private static final int sf_testsPerClass = 100;
+
+  @Param({"1000", "10000", "100000"})
+  public int tests;
+  @Param({"true", "false"})
+  public boolean problemsOnly;
+
+  private File m_reportDir;
+  private PrintStream m_stdout;
+  private TestPlan m_testPlan;
+  private TestIdentifier m_engine;
+  private final List<TestIdentifier> m_classes = new ArrayList<>();
+  private final List<List<TestIdentifier>> m_tests = new ArrayList<>();
+  private final TestExecutionResult m_failure = TestExecutionResult.failed(new AssertionError("expected"));
+
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws IOException {
+    m_reportDir = Files.createTempDirectory("jupiterResultFormatterBenchmark").toFile();
+    m_stdout = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+
+    UniqueId engineId = UniqueId.forEngine("junit-jupiter");
+    EngineDescriptor engine = new EngineDescriptor(engineId, "JUnit Jupiter");
+    for (int c = 0; c * sf_testsPerClass < tests; c += 1) {
+      String className = "org.example.Benchmark" + c + "Test";
+      SimpleDescriptor classDescriptor = new SimpleDescriptor(engineId.append("class", className), className,
+          ClassSource.from(className), TestDescriptor.Type.CONTAINER);
+      engine.addChild(classDescriptor);
+      for (int t = 0; t < sf_testsPerClass && c * sf_testsPerClass + t < tests; t += 1) {
+        String method = "test" + t;
+        classDescriptor.addChild(new SimpleDescriptor(
+            classDescriptor.getUniqueId().append("method", method + "()"), method + "()",
+            MethodSource.from(className, method), TestDescriptor.Type.TEST));
+      }
+    }
+    m_testPlan = TestPlan.from(Collections.singletonList(engine));
+    m_engine = TestIdentifier.from(engine);
+    for (TestDescriptor classDescriptor : engine.getChildren()) {
+      m_classes.add(TestIdentifier.from(classDescriptor));
+      List<TestIdentifier> classTests = new ArrayList<>();
+      for (TestDescriptor test : classDescriptor.getChildren()) {
+        classTests.add(TestIdentifier.from(test));
+      }
+      m_tests.add(classTests);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    System.setOut(m_stdout);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpIteration() throws IOException {
+    // reports are appended to, don't let them grow without bounds
+    Files.deleteIfExists(new File(m_reportDir, "index.txt").toPath());
+  }
+
+
+  @Benchmark
+  public JupiterResultFormatter runTestPlan() {
+    Properties properties = new Properties();
+    properties.setProperty("testReportDir", m_reportDir.getAbsolutePath());
+    properties.setProperty("testReportProblemsOnly", Boolean.toString(problemsOnly));
+    properties.setProperty("testReportIndex", "false");
+
+    JupiterResultFormatter formatter = new JupiterResultFormatter();
+    formatter.setDestination(new ByteArrayOutputStream());
+    formatter.setContext(new TestExecutionContext() {
+      @Override
+      public Properties getProperties() {
+        return properties;
+      }
+
+      @Override
+      public Optional<Project> getProject() {
+        return Optional.empty();
+      }
+    });
+
+    formatter.testPlanExecutionStarted(m_testPlan);
+    formatter.executionStarted(m_engine);
+    int count = 0;
+    for (int c = 0; c < m_classes.size(); c += 1) {
+      formatter.executionStarted(m_classes.get(c));
+      for (TestIdentifier test : m_tests.get(c)) {
+        formatter.executionStarted(test);
+        formatter.executionFinished(test, count % 100 == 0 ? m_failure : TestExecutionResult.successful());
+        count += 1;
+      }
+      formatter.executionFinished(m_classes.get(c), TestExecutionResult.successful());
+    }
+    formatter.executionFinished(m_engine, TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(m_testPlan);
+    formatter.close();
+    return formatter;
+  }
+
+
+  private static final class SimpleDescriptor extends AbstractTestDescriptor {
+    private final Type m_type;
+
+    SimpleDescriptor(UniqueId uniqueId, String displayName, TestSource source, Type type) {
+      super(uniqueId, displayName, source);
+      m_type = type;
+    }
+
+    @Override
+    public Type getType() {
+      return m_type;
+    }
+  }
+}
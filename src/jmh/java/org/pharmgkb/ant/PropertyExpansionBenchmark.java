@@ -0,0 +1,135 @@
+package org.pharmgkb.ant;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks for {@link ExpandingPropertyTask#resolveValue(Project, String, String)} and
+ * {@link ExpandPropertiesTask#execute()} on synthetic projects.
+ * <p>
+ * Properties come in chains of {@code depth} references, each of which also has a nested reference (e.g.
+ * {@code p.2 = ${p.1}/${server.${name}}}).
+ * <p>
+ * Parsed templates are cached for the life of the JVM (see {@link PropertyTemplate}), so after the first call every
+ * value would be a cache hit.  Unless {@code cached} is true, the cache is cleared at the start of each call, so that
+ * parsing is measured as well.
+ * <p>
+ * {@link #expandProperties(Projects)} needs a fresh project for each call, since the task remembers what it has
+ * expanded.  Rather than creating one before each call (which JMH advises against for calls this short), a batch of
+ * projects is created before each iteration and each call in the iteration uses the next one.  Its score is the time
+ * for the whole batch.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PropertyExpansionBenchmark {
+  @Param({"100", "1000", "10000", "100000"})
+  public int size;
+  @Param({"1", "4", "16"})
+  public int depth;
+  @Param({"true", "false"})
+  public boolean cached;
+
+  private static final int sf_batchSize = 10;
+  private Map<String, String> m_properties;
+  private Project m_lookupProject;
+  private String m_value;
+
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    m_properties = createProperties(size, depth);
+    m_lookupProject = createProject(m_properties);
+    m_value = "${p." + (size - 1) + "}/${server.${name}}";
+  }
+
+  /**
+   * A batch of fresh projects for {@link #expandProperties(Projects)}.
+   */
+  @State(Scope.Thread)
+  public static class Projects {
+    private Project[] m_projects;
+    private int m_next;
+
+    @Setup(Level.Iteration)
+    public void setUpIteration(PropertyExpansionBenchmark benchmark) {
+      m_projects = new Project[sf_batchSize];
+      for (int x = 0; x < m_projects.length; x += 1) {
+        m_projects[x] = createProject(benchmark.m_properties);
+      }
+      m_next = 0;
+    }
+
+    Project next() {
+      return m_projects[m_next++];
+    }
+  }
+
+
+  /**
+   * Creates {@code size} properties, in chains of {@code depth} references.
+   */
+  static Map<String, String> createProperties(int size, int depth) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("name", "www");
+    properties.put("server.www", "www.pharmgkb.org");
+    for (int x = 0; x < size; x += 1) {
+      if (x % (depth + 1) == 0) {
+        properties.put("p." + x, "value" + x);
+      } else {
+        properties.put("p." + x, "${p." + (x - 1) + "}/${server.${name}}");
+      }
+    }
+    return properties;
+  }
+
+  static Project createProject(Map<String, String> properties) {
+    Project project = new Project();
+    properties.forEach(project::setUserProperty);
+    return project;
+  }
+
+
+  @Benchmark
+  public String resolveValue() {
+    if (!cached) {
+      PropertyTemplate.clearCache();
+    }
+    return ExpandingPropertyTask.resolveValue(m_lookupProject, "bench.key", m_value);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 3, batchSize = sf_batchSize)
+  @Measurement(iterations = 5, batchSize = sf_batchSize)
+  public Project expandProperties(Projects projects) {
+    if (!cached) {
+      PropertyTemplate.clearCache();
+    }
+    Project project = projects.next();
+    ExpandPropertiesTask task = new ExpandPropertiesTask();
+    task.setProject(project);
+    task.execute();
+    return project;
+  }
+}
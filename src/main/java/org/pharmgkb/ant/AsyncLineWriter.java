@@ -0,0 +1,164 @@
+package org.pharmgkb.ant;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Writes lines to one or more {@link PrintWriter}s on a background thread.
+ * <p>
+ * Lines are queued in a bounded buffer (callers block if the writer falls too far behind) and written out in batches.
+ * Targets are flushed once enough lines have been written or enough time has passed, instead of after every line.
+ * {@link #close()} blocks until every queued line has been written and flushed (or the background thread stops
+ * responding).  Lines can't be queued once {@link #close()} has been called, and callers are told so they can write
+ * them out some other way.
+ *
+ * @author Mark Woon
+ */
+final class AsyncLineWriter implements Closeable {
+  private static final int sf_capacity = 8192;
+  private static final int sf_batchSize = 512;
+  private static final long sf_flushIntervalMillis = 250;
+  /** How long to wait for the background thread before checking whether it is still alive. */
+  private static final long sf_waitMillis = 1000;
+  /** How long {@link #close()} waits for everything to be written. */
+  private static final long sf_closeTimeoutMillis = 60_000;
+  /** Marker telling the writer thread to stop. */
+  private static final String sf_endOfStream = new String("<<END>>");
+
+  private final BlockingQueue<String> m_queue = new ArrayBlockingQueue<>(sf_capacity);
+  private final PrintWriter[] m_targets;
+  private final Thread m_thread;
+  /** Held (shared) while queueing lines, and (exclusive) while closing, so no line gets queued after the end marker. */
+  private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+  private boolean m_closed;
+  /** Why the background thread stopped, if it stopped before being closed. */
+  private volatile RuntimeException m_failure;
+
+
+  AsyncLineWriter(String name, PrintWriter... targets) {
+    m_targets = targets;
+    m_thread = new Thread(this::drain, name);
+    m_thread.setDaemon(true);
+    m_thread.start();
+  }
+
+
+  /**
+   * Queues a line to be written.
+   *
+   * @return true if the line was queued, false if this writer has been closed
+   * @throws IllegalStateException if the background thread has stopped
+   */
+  boolean println(String line) {
+    m_lock.readLock().lock();
+    try {
+      if (m_closed) {
+        return false;
+      }
+      enqueue(line);
+      return true;
+    } finally {
+      m_lock.readLock().unlock();
+    }
+  }
+
+  private void enqueue(String line) {
+    try {
+      while (!m_queue.offer(line, sf_waitMillis, TimeUnit.MILLISECONDS)) {
+        if (!m_thread.isAlive()) {
+          throw new IllegalStateException("Writer thread has stopped", m_failure);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while queueing output", ex);
+    }
+  }
+
+
+  /**
+   * Writes out everything that has been queued and stops the background thread.  The targets are flushed but not
+   * closed.
+   */
+  @Override
+  public void close() {
+    m_lock.writeLock().lock();
+    try {
+      if (m_closed) {
+        return;
+      }
+      m_closed = true;
+    } finally {
+      m_lock.writeLock().unlock();
+    }
+    try {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sf_closeTimeoutMillis);
+      while (!m_queue.offer(sf_endOfStream, sf_waitMillis, TimeUnit.MILLISECONDS)) {
+        if (!m_thread.isAlive() || System.nanoTime() > deadline) {
+          return;
+        }
+      }
+      m_thread.join(Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+  private void drain() {
+    try {
+      doDrain();
+    } catch (RuntimeException ex) {
+      // reported by println()
+      m_failure = ex;
+    }
+  }
+
+  private void doDrain() {
+    List<String> batch = new ArrayList<>(sf_batchSize);
+    int unflushed = 0;
+    long lastFlush = System.nanoTime();
+    long flushInterval = TimeUnit.MILLISECONDS.toNanos(sf_flushIntervalMillis);
+    boolean done = false;
+    while (!done) {
+      String line;
+      try {
+        line = m_queue.poll(sf_flushIntervalMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        // only close() should stop this thread
+        continue;
+      }
+      if (line != null) {
+        batch.add(line);
+        m_queue.drainTo(batch, sf_batchSize - 1);
+        for (String l : batch) {
+          if (l == sf_endOfStream) {
+            done = true;
+            break;
+          }
+          for (PrintWriter target : m_targets) {
+            target.println(l);
+          }
+          unflushed += 1;
+        }
+        batch.clear();
+      }
+      if (unflushed > 0 &&
+          (done || line == null || unflushed >= sf_batchSize || System.nanoTime() - lastFlush >= flushInterval)) {
+        for (PrintWriter target : m_targets) {
+          target.flush();
+        }
+        unflushed = 0;
+        lastFlush = System.nanoTime();
+      }
+    }
+  }
+}
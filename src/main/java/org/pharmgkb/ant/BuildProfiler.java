@@ -0,0 +1,346 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+
+
+/**
+ * This is an Ant build listener that records how long every target and task takes.  Use it with
+ * {@code ant -listener org.pharmgkb.ant.BuildProfiler}.
+ * <p>
+ * Timings are kept per thread (so {@code <parallel>} is handled and there's no need for global locks), and nested
+ * builds ({@code antcall}, {@code ant}, {@code subant}) show up nested under the task that started them.  When the
+ * build finishes, this writes the following to the directory specified by the property {@code pgkb.profile.dir}
+ * (defaults to {@code build/profile} under the project's base directory):
+ * <dl>
+ *   <dt>{@code profile-summary.txt}</dt>
+ *   <dd>total and self time of each target and task, slowest first</dd>
+ *   <dt>{@code profile.folded}</dt>
+ *   <dd>self time (in microseconds) of each call stack, in the folded stacks format used by flame graph tools</dd>
+ *   <dt>{@code profile-trace.json}</dt>
+ *   <dd>every target and task in Chrome's trace event format (for {@code chrome://tracing} or Perfetto)</dd>
+ * </dl>
+ * The slowest targets and tasks are also printed; the number of each to print is controlled by the property
+ * {@code pgkb.profile.top} (defaults to 10, set to 0 to turn this off).
+ *
+ * @author Mark Woon
+ */
+public class BuildProfiler implements SubBuildListener {
+  private static final String sf_target = "target";
+  private static final String sf_task = "task";
+  private static final int sf_defaultTop = 10;
+
+  /** Per-thread state, for all threads that have reported events. */
+  private final Queue<ThreadState> m_threads = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<ThreadState> m_threadState = ThreadLocal.withInitial(() -> {
+    ThreadState state = new ThreadState(Thread.currentThread());
+    m_threads.add(state);
+    return state;
+  });
+  private volatile long m_buildStarted;
+
+
+
+  @Override
+  public void buildStarted(BuildEvent event) {
+    m_buildStarted = System.nanoTime();
+  }
+
+  @Override
+  public void buildFinished(BuildEvent event) {
+    long buildFinished = System.nanoTime();
+    Project project = event.getProject();
+    String dirName = project.getProperty("pgkb.profile.dir");
+    File dir = dirName != null ? project.resolveFile(dirName) : new File(project.getBaseDir(), "build/profile");
+    int topCount = parseTop(project);
+
+    List<Timing> timings = new ArrayList<>();
+    for (ThreadState state : m_threads) {
+      timings.addAll(state.timings);
+    }
+    List<Summary> summaries = summarize(timings);
+    // a listener shouldn't fail the build, so only warn if the profile can't be written
+    try {
+      //noinspection ResultOfMethodCallIgnored
+      dir.mkdirs();
+      writeSummary(new File(dir, "profile-summary.txt"), summaries, buildFinished - m_buildStarted);
+      writeFoldedStacks(new File(dir, "profile.folded"), timings);
+      writeTrace(new File(dir, "profile-trace.json"), timings);
+    } catch (IOException ex) {
+      project.log("Error writing build profile to " + dir + ": " + ex, Project.MSG_WARN);
+    }
+    if (topCount > 0) {
+      printTop(project, summaries, sf_target, topCount);
+      printTop(project, summaries, sf_task, topCount);
+    }
+  }
+
+  @Override
+  public void subBuildStarted(BuildEvent event) {
+    // targets in sub-builds show up under the task that started the sub-build
+  }
+
+  @Override
+  public void subBuildFinished(BuildEvent event) {
+  }
+
+  @Override
+  public void targetStarted(BuildEvent event) {
+    Target target = event.getTarget();
+    String projectName = target.getProject() != null ? target.getProject().getName() : null;
+    String name = projectName != null && !projectName.isEmpty() ? projectName + "." + target.getName() :
+        target.getName();
+    m_threadState.get().push(target, sf_target, name);
+  }
+
+  @Override
+  public void targetFinished(BuildEvent event) {
+    m_threadState.get().pop(event.getTarget());
+  }
+
+  @Override
+  public void taskStarted(BuildEvent event) {
+    Task task = event.getTask();
+    m_threadState.get().push(task, sf_task, task.getTaskName());
+  }
+
+  @Override
+  public void taskFinished(BuildEvent event) {
+    m_threadState.get().pop(event.getTask());
+  }
+
+  @Override
+  public void messageLogged(BuildEvent event) {
+    // ignored
+  }
+
+
+
+  /**
+   * Gets the number of slowest targets and tasks to print from the {@code pgkb.profile.top} property, falling back to
+   * the default (with a warning) if it isn't a number.
+   */
+  private static int parseTop(Project project) {
+    String top = project.getProperty("pgkb.profile.top");
+    if (top == null) {
+      return sf_defaultTop;
+    }
+    try {
+      return Integer.parseInt(top.trim());
+    } catch (NumberFormatException ex) {
+      project.log("Invalid pgkb.profile.top '" + top + "', using " + sf_defaultTop, Project.MSG_WARN);
+      return sf_defaultTop;
+    }
+  }
+
+  private static List<Summary> summarize(List<Timing> timings) {
+    Map<String, Summary> summaries = new HashMap<>();
+    for (Timing timing : timings) {
+      Summary summary = summaries.computeIfAbsent(timing.category + ":" + timing.name,
+          k -> new Summary(timing.category, timing.name));
+      summary.count += 1;
+      summary.totalNanos += timing.nanos;
+      summary.selfNanos += timing.selfNanos;
+    }
+    List<Summary> sorted = new ArrayList<>(summaries.values());
+    sorted.sort(Comparator.comparingLong((Summary s) -> s.totalNanos).reversed()
+        .thenComparing(s -> s.name));
+    return sorted;
+  }
+
+  private static void writeSummary(File file, List<Summary> summaries, long buildNanos) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write(String.format("Build took %.3fs%n%n", buildNanos / 1e9));
+      writer.write(String.format("%-6s  %12s  %12s  %8s  %s%n", "type", "total (s)", "self (s)", "count", "name"));
+      for (Summary summary : summaries) {
+        writer.write(String.format("%-6s  %12.3f  %12.3f  %8d  %s%n", summary.category, summary.totalNanos / 1e9,
+            summary.selfNanos / 1e9, summary.count, summary.name));
+      }
+    }
+  }
+
+  private static void writeFoldedStacks(File file, List<Timing> timings) throws IOException {
+    Map<String, Long> stacks = new TreeMap<>();
+    for (Timing timing : timings) {
+      stacks.merge(timing.stack, timing.selfNanos, Long::sum);
+    }
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+        long micros = entry.getValue() / 1000;
+        if (micros > 0) {
+          writer.write(entry.getKey());
+          writer.write(' ');
+          writer.write(Long.toString(micros));
+          writer.write('\n');
+        }
+      }
+    }
+  }
+
+  private void writeTrace(File file, List<Timing> timings) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("{\"traceEvents\":[\n");
+      boolean first = true;
+      for (ThreadState state : m_threads) {
+        StringBuilder builder = new StringBuilder("{");
+        Json.field(builder, "name", "thread_name").append(',');
+        Json.field(builder, "ph", "M").append(',');
+        Json.field(builder, "pid", 1).append(',');
+        Json.field(builder, "tid", state.threadId).append(",\"args\":{");
+        Json.field(builder, "name", state.threadName).append("}}");
+        if (!first) {
+          writer.write(",\n");
+        }
+        writer.write(builder.toString());
+        first = false;
+      }
+      for (Timing timing : timings) {
+        StringBuilder builder = new StringBuilder("{");
+        Json.field(builder, "name", timing.name).append(',');
+        Json.field(builder, "cat", timing.category).append(',');
+        Json.field(builder, "ph", "X").append(',');
+        Json.field(builder, "ts", (timing.started - m_buildStarted) / 1000).append(',');
+        Json.field(builder, "dur", timing.nanos / 1000).append(',');
+        Json.field(builder, "pid", 1).append(',');
+        Json.field(builder, "tid", timing.threadId).append('}');
+        if (!first) {
+          writer.write(",\n");
+        }
+        writer.write(builder.toString());
+        first = false;
+      }
+      writer.write("\n]}\n");
+    }
+  }
+
+  private static void printTop(Project project, List<Summary> summaries, String category, int count) {
+    StringBuilder builder = new StringBuilder("Slowest ").append(category).append("s:");
+    int printed = 0;
+    for (Summary summary : summaries) {
+      if (summary.category.equals(category)) {
+        builder.append(String.format("%n  %8.3fs  %s", summary.totalNanos / 1e9, summary.name));
+        printed += 1;
+        if (printed == count) {
+          break;
+        }
+      }
+    }
+    if (printed > 0) {
+      project.log(builder.toString());
+    }
+  }
+
+
+
+  /**
+   * Stack of running targets/tasks and finished timings for a single thread.  Only accessed by that thread until the
+   * build finishes.
+   */
+  private static final class ThreadState {
+    final long threadId;
+    final String threadName;
+    final Deque<Frame> stack = new ArrayDeque<>();
+    final List<Timing> timings = new ArrayList<>();
+
+    ThreadState(Thread thread) {
+      threadId = thread.getId();
+      threadName = thread.getName();
+    }
+
+    void push(Object source, String category, String name) {
+      Frame parent = stack.peek();
+      String frameName = name.replace(';', '_');
+      stack.push(new Frame(source, category, name, parent == null ? frameName : parent.stack + ";" + frameName));
+    }
+
+    void pop(Object source) {
+      if (stack.stream().noneMatch(f -> f.source == source)) {
+        // never saw it start
+        return;
+      }
+      long now = System.nanoTime();
+      while (!stack.isEmpty()) {
+        Frame frame = stack.pop();
+        long nanos = now - frame.started;
+        timings.add(new Timing(frame, nanos, threadId));
+        Frame parent = stack.peek();
+        if (parent != null) {
+          parent.childNanos += nanos;
+        }
+        if (frame.source == source) {
+          break;
+        }
+      }
+    }
+  }
+
+
+  private static final class Frame {
+    final Object source;
+    final String category;
+    final String name;
+    final String stack;
+    final long started = System.nanoTime();
+    long childNanos;
+
+    Frame(Object source, String category, String name, String stack) {
+      this.source = source;
+      this.category = category;
+      this.name = name;
+      this.stack = stack;
+    }
+  }
+
+
+  private static final class Timing {
+    final String category;
+    final String name;
+    final String stack;
+    final long started;
+    final long nanos;
+    final long selfNanos;
+    final long threadId;
+
+    Timing(Frame frame, long nanos, long threadId) {
+      category = frame.category;
+      name = frame.name;
+      stack = frame.stack;
+      started = frame.started;
+      this.nanos = nanos;
+      selfNanos = Math.max(0, nanos - frame.childNanos);
+      this.threadId = threadId;
+    }
+  }
+
+
+  private static final class Summary {
+    final String category;
+    final String name;
+    long count;
+    long totalNanos;
+    long selfNanos;
+
+    Summary(String category, String name) {
+      this.category = category;
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.pharmgkb.ant;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+
+/**
+ * Output that a test writes to {@link System#out}/{@link System#err}.  {@link JupiterResultFormatter} keeps one of
+ * these for each running test, and one for the whole test plan, for output that can't be tied to a single test.
+ * <p>
+ * Buffers are only created once there is some output.  Output longer than {@code maxOutput} bytes is spilled to a file
+ * (see {@link OutputBuffer}), and only its head and tail are formatted.
+ * <p>
+ * This never throws: it is used from listener callbacks, so problems are reported on {@link System#err} and capturing
+ * stops.
+ *
+ * @author Mark Woon
+ */
+final class CapturedOutput implements Closeable {
+  private final long m_maxOutput;
+  private final File m_spillDir;
+  private OutputBuffer m_out;
+  private OutputBuffer m_err;
+  private boolean m_failed;
+
+
+  /**
+   * @param maxOutput number of bytes (per stream) to keep in memory and include in full
+   * @param spillDir directory to spill large output to
+   */
+  CapturedOutput(long maxOutput, File spillDir) {
+    m_maxOutput = maxOutput;
+    m_spillDir = spillDir;
+  }
+
+
+  synchronized void out(byte[] data) {
+    if (m_out == null) {
+      m_out = new OutputBuffer(m_maxOutput, m_spillDir);
+    }
+    write(m_out, data);
+  }
+
+  synchronized void err(byte[] data) {
+    if (m_err == null) {
+      m_err = new OutputBuffer(m_maxOutput, m_spillDir);
+    }
+    write(m_err, data);
+  }
+
+  private void write(OutputBuffer buffer, byte[] data) {
+    if (m_failed) {
+      return;
+    }
+    try {
+      buffer.write(data, 0, data.length);
+    } catch (UncheckedIOException ex) {
+      m_failed = true;
+      System.err.println("Cannot capture test output, ignoring the rest: " + ex.getMessage());
+    }
+  }
+
+
+  /**
+   * Formats the output for the report.
+   *
+   * @return the formatted output, or null if there isn't any
+   */
+  synchronized String format() {
+    if (length(m_out) == 0 && length(m_err) == 0) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder();
+    format(builder, "------------- Standard Output ---------------", m_out);
+    format(builder, "------------- Standard Error -----------------", m_err);
+    builder.append("    ------------- ---------------- ---------------");
+    return builder.toString();
+  }
+
+  private static long length(OutputBuffer buffer) {
+    return buffer == null ? 0 : buffer.length();
+  }
+
+  private void format(StringBuilder builder, String header, OutputBuffer buffer) {
+    long length = length(buffer);
+    if (length == 0) {
+      return;
+    }
+    builder.append("    ").append(header).append("\n");
+    try {
+      if (buffer.getSpillFile() == null) {
+        appendIndented(builder, buffer.read(0, length));
+      } else {
+        buffer.keep();
+        long half = m_maxOutput / 2;
+        appendIndented(builder, buffer.read(0, half));
+        builder.append("    ... ")
+            .append(length - half * 2)
+            .append(" bytes omitted, full output in ")
+            .append(buffer.getSpillFile().getAbsolutePath())
+            .append(" ...\n");
+        appendIndented(builder, buffer.read(length - half, length));
+      }
+    } catch (UncheckedIOException ex) {
+      builder.append("    (cannot read output: ").append(ex.getMessage()).append(")\n");
+    }
+  }
+
+  private static void appendIndented(StringBuilder builder, byte[] bytes) {
+    String text = new String(bytes);
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      if (end == -1) {
+        end = text.length();
+      }
+      int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+      builder.append("    ")
+          .append(text, start, lineEnd)
+          .append("\n");
+      start = end + 1;
+    }
+  }
+
+
+  /**
+   * Releases the buffers, deleting spill files that weren't included in a report.
+   */
+  @Override
+  public synchronized void close() {
+    close(m_out);
+    close(m_err);
+    m_out = null;
+    m_err = null;
+  }
+
+  private static void close(OutputBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      buffer.close();
+    } catch (IOException ex) {
+      System.err.println("Error closing test output: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package org.pharmgkb.ant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Keeps a history of test durations, so that tests that have gotten slower can be flagged.
+ * <p>
+ * The history is stored in {@code test-durations.tsv} in the test report directory.  It's an append-only file with
+ * one line per test per run: {@code <duration in nanoseconds> TAB <test name>}.  Only the last {@value #sf_window}
+ * durations of each test are used, and the file is compacted once it gets too far past that.
+ * <p>
+ * Several JVMs (e.g. forks or shards) can share a history.  Changes to the file are made while holding an exclusive lock
+ * (on a {@code .lock} file next to it), and the file is read again before being compacted so that durations appended by
+ * other JVMs aren't lost.
+ *
+ * @author Mark Woon
+ */
+final class DurationHistory {
+  static final String sf_filename = "test-durations.tsv";
+  /** Number of past durations to compare against. */
+  private static final int sf_window = 20;
+  /** Minimum number of past durations needed before a test can be flagged. */
+  private static final int sf_minSamples = 5;
+  /** Tests faster than this are too noisy to flag. */
+  private static final long sf_minNanos = 10_000_000;
+  /** Histories that have already been loaded, so they only need to be read once per JVM. */
+  private static final Map<File, DurationHistory> sf_histories = new HashMap<>();
+
+  private final File m_file;
+  private final Map<String, Deque<Long>> m_durations = new LinkedHashMap<>();
+  private int m_lines;
+
+
+  private DurationHistory(File file) {
+    m_file = file;
+  }
+
+
+  /**
+   * Gets the history stored in {@code dir}.
+   */
+  static DurationHistory get(File dir) {
+    File file = new File(dir, sf_filename).getAbsoluteFile();
+    synchronized (sf_histories) {
+      return sf_histories.computeIfAbsent(file, f -> {
+        DurationHistory history = new DurationHistory(f);
+        history.load();
+        return history;
+      });
+    }
+  }
+
+
+  private void load() {
+    m_durations.clear();
+    m_lines = 0;
+    if (!m_file.exists()) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(m_file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int idx = line.indexOf('\t');
+        if (idx == -1) {
+          continue;
+        }
+        try {
+          add(line.substring(idx + 1), Long.parseLong(line.substring(0, idx)));
+          m_lines += 1;
+        } catch (NumberFormatException ex) {
+          // ignore corrupt lines
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error reading " + m_file, ex);
+    }
+  }
+
+  /**
+   * Test names can be display names, which can contain anything.  Make sure they stay on one line.
+   */
+  private static String toKey(String name) {
+    return name.replace('\t', ' ')
+        .replace('\r', ' ')
+        .replace('\n', ' ');
+  }
+
+  private void add(String name, long nanos) {
+    Deque<Long> durations = m_durations.computeIfAbsent(toKey(name), k -> new ArrayDeque<>(sf_window));
+    if (durations.size() == sf_window) {
+      durations.removeFirst();
+    }
+    durations.addLast(nanos);
+  }
+
+
+  /**
+   * Checks the latest durations against history.
+   *
+   * @param threshold how much slower than the median a test has to be (e.g. 1.5 means 50% slower) to be flagged; it
+   * also has to be slower than the 95th percentile
+   * @return descriptions of tests that have gotten slower
+   */
+  synchronized List<String> findRegressions(Map<String, Long> latest, double threshold) {
+
+    List<String> regressions = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : latest.entrySet()) {
+      long nanos = entry.getValue();
+      Deque<Long> history = m_durations.get(toKey(entry.getKey()));
+      if (nanos < sf_minNanos || history == null || history.size() < sf_minSamples) {
+        continue;
+      }
+      long[] sorted = new long[history.size()];
+      int x = 0;
+      for (long d : history) {
+        sorted[x] = d;
+        x += 1;
+      }
+      Arrays.sort(sorted);
+      long median = sorted[sorted.length / 2];
+      long p95 = sorted[(int)Math.ceil(sorted.length * 0.95) - 1];
+      if (nanos > median * threshold && nanos > p95) {
+        regressions.add(String.format("%s took %.3fs (median: %.3fs, p95: %.3fs)", entry.getKey(), nanos / 1e9,
+            median / 1e9, p95 / 1e9));
+      }
+    }
+    return regressions;
+  }
+
+
+  /**
+   * Adds the latest durations to the history and saves them.
+   */
+  synchronized void append(Map<String, Long> latest) {
+    if (latest.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, Long> entry : latest.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+    m_lines += latest.size();
+
+    //noinspection ResultOfMethodCallIgnored
+    m_file.getParentFile().mkdirs();
+    File lockFile = new File(m_file.getParentFile(), m_file.getName() + ".lock");
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      FileLock lock = channel.lock();
+      try {
+        try (Writer writer = Files.newBufferedWriter(m_file.toPath(), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+          for (Map.Entry<String, Long> entry : latest.entrySet()) {
+            writeLine(writer, toKey(entry.getKey()), entry.getValue());
+          }
+        }
+        if (m_lines > m_durations.size() * sf_window * 2) {
+          // pick up whatever other JVMs have appended since this was loaded
+          load();
+          compact();
+        }
+      } finally {
+        lock.release();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + m_file, ex);
+    }
+  }
+
+  /**
+   * Rewrites the history file with only the durations that are still in use.  Must hold the lock.
+   */
+  private void compact() throws IOException {
+    File tmpFile = File.createTempFile(m_file.getName(), ".tmp", m_file.getParentFile());
+    m_lines = 0;
+    try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Deque<Long>> entry : m_durations.entrySet()) {
+        for (long nanos : entry.getValue()) {
+          writeLine(writer, entry.getKey(), nanos);
+          m_lines += 1;
+        }
+      }
+    }
+    Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeLine(Writer writer, String name, long nanos) throws IOException {
+    writer.write(Long.toString(nanos));
+    writer.write('\t');
+    writer.write(name);
+    writer.write('\n');
+  }
+}
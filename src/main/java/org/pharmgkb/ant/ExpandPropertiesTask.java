@@ -1,6 +1,19 @@
 package org.pharmgkb.ant;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
@@ -12,28 +25,201 @@
  * <pre>{@code
  * url = ${scheme}://${server.${name}}/${path}
  * }</pre>
+ * <p>
+ * Properties are expanded in dependency order (see {@link PropertyGraph}), so results do not depend on the order in
+ * which properties are defined.  Large sets of independent properties are expanded in parallel unless the
+ * {@code parallel} attribute is set to false.
+ * <p>
+ * This task can be called multiple times (e.g. after each batch of property files is loaded).  Subsequent calls only
+ * expand properties that have changed since the previous call, along with the properties that refer to them.
+ * <p>
+ * Note that this differs from expanding everything again: properties that refer to a property that has changed are
+ * expanded again from their original (unexpanded) values, so they pick up the change.  A full pass would only see their
+ * already-expanded values and leave them as they were.  Properties that have been set to a new value since the previous
+ * call keep that value (expanded), even if what they used to refer to has also changed.
  *
  * @author Mark Woon
  */
 public class ExpandPropertiesTask extends Task {
+  /** Strata smaller than this aren't worth the overhead of going parallel. */
+  private static final int sf_parallelThreshold = 256;
+  private static final String sf_stateReference = ExpandPropertiesTask.class.getName() + ".state";
+  private boolean m_parallel = true;
+
+
+  public void setParallel(boolean parallel) {
+    m_parallel = parallel;
+  }
 
 
   public void execute() throws BuildException {
 
     Project project = getProject();
-    Map<String, Object> map = project.getProperties();
-    for (String key : map.keySet()) {
+    // work off a single snapshot so that shared references only get resolved once
+    Map<String, Object> current = project.getProperties();
+    Map<String, Object> map = new HashMap<>(current);
+    ExpansionState state = project.getReference(sf_stateReference);
+    Collection<String> candidates = state == null ? map.keySet() : state.findChanges(map);
+
+    List<String> keys = new ArrayList<>();
+    for (String key : candidates) {
       if (key.startsWith("env.BASH_FUNC_")) {
         continue;
       }
-      String value = (String)map.get(key);
-      try {
-        String newValue = ExpandingPropertyTask.resolveValue(project, key, value);
-        if (!value.equals(newValue)) {
-          project.setUserProperty(key, newValue);
+      if (map.get(key) instanceof String) {
+        keys.add(key);
+      }
+    }
+    Collections.sort(keys);
+
+    PropertyExpander expander = new PropertyExpander(map);
+    Map<String, String> newValues = expand(expander, new PropertyGraph(expander, keys), map, m_parallel);
+    for (String key : keys) {
+      String newValue = newValues.get(key);
+      if (!newValue.equals(current.get(key))) {
+        project.setUserProperty(key, newValue);
+      }
+    }
+
+    if (state == null) {
+      state = new ExpansionState();
+      project.addReference(sf_stateReference, state);
+    }
+    state.update(candidates, keys, map, current, newValues, expander);
+    PropertyTemplate.exportCacheStats(project);
+  }
+
+
+  /**
+   * Expands every property in {@code graph}, one stratum at a time.
+   *
+   * @param map the values being expanded (only used for error messages)
+   * @param parallel true if large strata should be expanded in parallel
+   */
+  static Map<String, String> expand(PropertyExpander expander, PropertyGraph graph, Map<String, ?> map,
+      boolean parallel) {
+
+    Map<String, String> newValues = new ConcurrentHashMap<>();
+    SortedMap<String, BuildException> errors = new ConcurrentSkipListMap<>();
+    for (List<String> stratum : graph.getStrata()) {
+      Stream<String> stream = parallel && stratum.size() >= sf_parallelThreshold ?
+          stratum.parallelStream() : stratum.stream();
+      stream.forEach(key -> {
+        try {
+          newValues.put(key, expander.getValue(key));
+        } catch (BuildException ex) {
+          errors.put(key, ex);
+        }
+      });
+      if (!errors.isEmpty()) {
+        // report the first key so that the error is the same no matter how the work was split up
+        String key = errors.firstKey();
+        BuildException ex = errors.get(key);
+        throw new BuildException("Error evaluating " + key + "='" + map.get(key) + "' (" + ex.getMessage() + ")", ex);
+      }
+    }
+    return newValues;
+  }
+
+
+  /**
+   * Tracks what was expanded by previous runs of this task in a project, so that later runs only need to re-expand
+   * properties whose inputs have changed.
+   */
+  private static final class ExpansionState {
+    /** The value of every property after the last run. */
+    private final Map<String, Object> m_values = new HashMap<>();
+    /** The original (unexpanded) value of properties that were expanded. */
+    private final Map<String, String> m_templates = new HashMap<>();
+    /** Keys that each expanded property referred to. */
+    private final Map<String, Set<String>> m_references = new HashMap<>();
+    /** Reverse of {@link #m_references}: keys of the expanded properties that refer to each key. */
+    private final Map<String, Set<String>> m_dependents = new HashMap<>();
+
+
+    /**
+     * Finds the keys that need to be expanded: keys whose values have changed since the last run, and everything that
+     * (directly or indirectly) refers to them.
+     * <p>
+     * Properties that need to be expanded again but have not changed themselves have already been overwritten with
+     * their expanded value, so their original value gets put back into {@code map}.
+     */
+    Set<String> findChanges(Map<String, Object> map) {
+
+      Set<String> changed = new HashSet<>();
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        if (!entry.getValue().equals(m_values.get(entry.getKey()))) {
+          changed.add(entry.getKey());
+        }
+      }
+      for (String key : m_values.keySet()) {
+        if (!map.containsKey(key)) {
+          changed.add(key);
+        }
+      }
+
+      Set<String> dirty = new HashSet<>(changed);
+      Deque<String> queue = new ArrayDeque<>(changed);
+      while (!queue.isEmpty()) {
+        for (String dependent : m_dependents.getOrDefault(queue.pop(), Collections.emptySet())) {
+          if (dirty.add(dependent)) {
+            queue.push(dependent);
+          }
+        }
+      }
+      for (String key : dirty) {
+        if (!changed.contains(key) && m_templates.containsKey(key)) {
+          map.put(key, m_templates.get(key));
+        }
+      }
+      return dirty;
+    }
+
+
+    /**
+     * Records the results of a run.
+     *
+     * @param candidates the keys that were considered for expansion
+     * @param keys the keys that were expanded
+     * @param map the values that were expanded
+     * @param current the values of properties before they were expanded
+     * @param newValues the expanded values
+     */
+    void update(Collection<String> candidates, Collection<String> keys, Map<String, Object> map,
+        Map<String, Object> current, Map<String, String> newValues, PropertyExpander expander) {
+
+      for (String key : keys) {
+        Set<String> refs = expander.getReferences(key);
+        Set<String> oldRefs;
+        if (refs.isEmpty()) {
+          oldRefs = m_references.remove(key);
+          m_templates.remove(key);
+        } else {
+          oldRefs = m_references.put(key, refs);
+          m_templates.put(key, (String)map.get(key));
+        }
+        if (oldRefs != null) {
+          for (String ref : oldRefs) {
+            Set<String> dependents = m_dependents.get(ref);
+            if (dependents != null) {
+              dependents.remove(key);
+            }
+          }
+        }
+        for (String ref : refs) {
+          m_dependents.computeIfAbsent(ref, k -> new HashSet<>())
+              .add(key);
+        }
+      }
+
+      Set<String> expanded = new HashSet<>(keys);
+      for (String key : candidates) {
+        Object value = expanded.contains(key) ? newValues.get(key) : current.get(key);
+        if (value == null) {
+          m_values.remove(key);
+        } else {
+          m_values.put(key, value);
         }
-      } catch (BuildException ex) {
-        throw new BuildException("Error evaluating " + key + "='" + value + "' (" + ex.getMessage() + ")", ex);
       }
     }
   }
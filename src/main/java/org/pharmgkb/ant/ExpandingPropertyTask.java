@@ -35,34 +35,15 @@ public void execute() throws BuildException {
     } else {
       super.execute();
     }
+    PropertyTemplate.exportCacheStats(getProject());
   }
 
 
   static String resolveValue(Project project, String key, String value) {
-
-    // don't bother if it starts and ends with {}
-    // example: env.WT_PROFILE_ID, which is set by Windows Terminal
-    if (value.startsWith("{") && value.endsWith("}")) {
+    if (value.indexOf('}') == -1) {
+      // nothing to expand, don't bother copying the project's properties
       return value;
     }
-    int endIdx = value.indexOf("}");
-    while (endIdx != -1) {
-      int startIdx = value.lastIndexOf("${", endIdx);
-      if (startIdx == -1) {
-        throw new BuildException("Found '}' but cannot find matching '${' while trying to expand '" + key + "': '" +
-            value + "'");
-      }
-      String prop = value.substring(startIdx, endIdx);
-      String subKey = prop.substring(2);
-      String subValue = (String)project.getProperties().get(subKey);
-      if (subValue == null) {
-        throw new BuildException("Cannot find value for '" + subKey + "' in key '" + key + "'");
-      } else if (subValue.contains("${" + subKey + "}")) {
-        throw new BuildException("Recursive keys: [" + key + "] --> [" + subKey + "] --> [" + subValue + "]");
-      }
-      value = value.substring(0, startIdx) + subValue + value.substring(endIdx + 1);
-      endIdx = value.indexOf("}");
-    }
-    return value;
+    return new PropertyExpander(project.getProperties()).resolve(key, value);
   }
 }
@@ -0,0 +1,162 @@
+package org.pharmgkb.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Per-class test counts from a single test run (i.e. a single forked JVM), so that results from many forks can be
+ * combined (see {@link MergeTestReportsTask}).
+ * <p>
+ * Each fork writes its own file in the {@code stats} subdirectory of the test report directory, one line per class:
+ * {@code <class> TAB <succeeded> TAB <failed> TAB <aborted> TAB <skipped> TAB <elapsed nanoseconds>}.  Files are
+ * written to a temp file and then moved into place, so readers never see a partially written file.
+ *
+ * @author Mark Woon
+ */
+final class ForkStats {
+  static final String sf_dirName = "stats";
+  static final String sf_suffix = ".tsv";
+  static final int sf_succeeded = 0;
+  static final int sf_failed = 1;
+  static final int sf_aborted = 2;
+  static final int sf_skipped = 3;
+  static final int sf_nanos = 4;
+  private static final int sf_numFields = 5;
+
+  private final Map<String, long[]> m_classes = new TreeMap<>();
+
+
+  /**
+   * Adds counts for a class.
+   *
+   * @param counts counts indexed by {@link #sf_succeeded}, {@link #sf_failed}, {@link #sf_aborted},
+   * {@link #sf_skipped} and {@link #sf_nanos}
+   */
+  synchronized void add(String className, long[] counts) {
+    long[] current = m_classes.computeIfAbsent(className, k -> new long[sf_numFields]);
+    for (int x = 0; x < sf_numFields; x += 1) {
+      current[x] += counts[x];
+    }
+  }
+
+  /**
+   * Adds all of {@code other}'s counts to this.
+   */
+  synchronized void add(ForkStats other) {
+    synchronized (other) {
+      other.m_classes.forEach(this::add);
+    }
+  }
+
+  synchronized Map<String, long[]> getClasses() {
+    return Collections.unmodifiableMap(m_classes);
+  }
+
+  /**
+   * Gets the totals across all classes.
+   */
+  synchronized long[] getTotals() {
+    long[] totals = new long[sf_numFields];
+    for (long[] counts : m_classes.values()) {
+      for (int x = 0; x < sf_numFields; x += 1) {
+        totals[x] += counts[x];
+      }
+    }
+    return totals;
+  }
+
+
+  /**
+   * Reads stats written by {@link #save(File, String)}.
+   */
+  static ForkStats read(File file) {
+    ForkStats stats = new ForkStats();
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length != sf_numFields + 1) {
+          continue;
+        }
+        long[] counts = new long[sf_numFields];
+        try {
+          for (int x = 0; x < sf_numFields; x += 1) {
+            counts[x] = Long.parseLong(fields[x + 1]);
+          }
+        } catch (NumberFormatException ex) {
+          // ignore corrupt lines
+          continue;
+        }
+        stats.add(fields[0], counts);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error reading " + file, ex);
+    }
+    return stats;
+  }
+
+
+  /**
+   * Saves these stats as {@code stats/<forkId>.tsv} in {@code reportDir}.
+   */
+  synchronized void save(File reportDir, String forkId) {
+    File dir = new File(reportDir, sf_dirName);
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    File file = new File(dir, forkId + sf_suffix);
+    File tmpFile = new File(dir, forkId + sf_suffix + ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, long[]> entry : m_classes.entrySet()) {
+          writer.write(entry.getKey());
+          for (long count : entry.getValue()) {
+            writer.write('\t');
+            writer.write(Long.toString(count));
+          }
+          writer.write('\n');
+        }
+      }
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + file, ex);
+    }
+  }
+
+
+  /**
+   * Appends {@code text} to {@code file} while holding an exclusive lock on it, so that writes from different JVMs
+   * can't get interleaved.  This is synchronized because file locks are held on behalf of the whole JVM, so they don't
+   * keep out other threads (which would get an {@code OverlappingFileLockException} instead).
+   */
+  static synchronized void appendLocked(File file, String text) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND)) {
+      FileLock lock = channel.lock();
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        lock.release();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + file, ex);
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package org.pharmgkb.ant;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * A Java version, following the {@code Runtime.version()} scheme ({@code $FEATURE.$INTERIM.$UPDATE.$PATCH}, optionally
+ * followed by {@code -$PRE}, {@code +$BUILD} and {@code -$OPTIONAL}), with support for legacy {@code 1.x} versions.
+ * <p>
+ * Legacy versions are normalized by dropping the leading {@code 1.} and treating the {@code _} before the update
+ * number as a {@code .}, so {@code 1.8.0_252-b09} is {@code 8.0.252} (build 9).
+ * <p>
+ * Versions compare on their numbers (missing numbers count as 0), then a pre-release version comes before the
+ * corresponding release.  Build and optional information are ignored.
+ *
+ * @author Mark Woon
+ */
+public final class JavaVersion implements Comparable<JavaVersion> {
+  private static final Pattern sf_pattern = Pattern.compile(
+      "([0-9]+(?:\\.[0-9]+)*(?:_[0-9]+)?)(?:-([a-zA-Z0-9]+))?(?:\\+([0-9]+))?(?:-([-a-zA-Z0-9.]+))?");
+  private final int[] m_numbers;
+  private final String m_pre;
+  private final String m_text;
+
+
+  private JavaVersion(int[] numbers, String pre, String text) {
+    m_numbers = numbers;
+    m_pre = pre;
+    m_text = text;
+  }
+
+
+  /**
+   * Gets the version of the running JVM (from the {@code java.version} system property).  This is only parsed once.
+   *
+   * @throws IllegalArgumentException if {@code java.version} is not a valid Java version
+   */
+  public static JavaVersion current() {
+    if (Current.sf_error != null) {
+      // new exception each time so the stack trace is for this call
+      throw new IllegalArgumentException(Current.sf_error.getMessage(), Current.sf_error);
+    }
+    return Current.sf_version;
+  }
+
+  /**
+   * Lazy holder so that {@code java.version} is only parsed (once) if it's needed.  Parse failures are kept rather
+   * than thrown, since an exception here would leave the class unusable (as {@link NoClassDefFoundError}) for the rest
+   * of the build.
+   */
+  private static final class Current {
+    private static final JavaVersion sf_version;
+    private static final IllegalArgumentException sf_error;
+
+    static {
+      JavaVersion version = null;
+      IllegalArgumentException error = null;
+      try {
+        version = parse(System.getProperty("java.version"));
+      } catch (IllegalArgumentException ex) {
+        error = ex;
+      }
+      sf_version = version;
+      sf_error = error;
+    }
+  }
+
+
+  /**
+   * Parses a version string.
+   *
+   * @throws IllegalArgumentException if {@code version} is not a valid Java version
+   */
+  public static JavaVersion parse(String version) {
+    if (version == null) {
+      throw new IllegalArgumentException("Missing version");
+    }
+    String text = version.trim();
+    Matcher m = sf_pattern.matcher(text);
+    if (!m.matches()) {
+      throw new IllegalArgumentException("Invalid Java version: '" + version + "'");
+    }
+    String[] parts = m.group(1).replace('_', '.').split("\\.");
+    int start = parts.length > 1 && parts[0].equals("1") ? 1 : 0;
+    int[] numbers = new int[parts.length - start];
+    try {
+      for (int x = start; x < parts.length; x += 1) {
+        numbers[x - start] = Integer.parseInt(parts[x]);
+      }
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Invalid Java version: '" + version + "'", ex);
+    }
+    String pre = m.group(2);
+    if (start == 1 && pre != null && pre.matches("b[0-9]+")) {
+      // legacy build number (e.g. 1.8.0_252-b09)
+      pre = null;
+    }
+    return new JavaVersion(numbers, pre, text);
+  }
+
+
+  /**
+   * Gets the feature release number (e.g. 8 for {@code 1.8.0_252}, 17 for {@code 17.0.2+8}).
+   */
+  public int feature() {
+    return m_numbers[0];
+  }
+
+  /**
+   * Gets the version numbers, with legacy versions normalized.
+   */
+  public int[] numbers() {
+    return m_numbers.clone();
+  }
+
+  /**
+   * Gets the pre-release identifier (e.g. {@code ea}), or null if this is not a pre-release version.
+   */
+  public String pre() {
+    return m_pre;
+  }
+
+
+  /**
+   * Compares this version to {@code other} using only as many numbers as {@code other} has, so that {@code 11.0.2}
+   * matches {@code 11} and {@code 1.8.0_252} matches {@code 1.8}.  Pre-release identifiers are only considered if
+   * {@code other} has one.
+   */
+  public int compareToPrefix(JavaVersion other) {
+    int rez = compareNumbers(other, other.m_numbers.length);
+    if (rez != 0 || other.m_pre == null) {
+      return rez;
+    }
+    return comparePre(other);
+  }
+
+  @Override
+  public int compareTo(JavaVersion other) {
+    int rez = compareNumbers(other, Math.max(m_numbers.length, other.m_numbers.length));
+    if (rez != 0) {
+      return rez;
+    }
+    return comparePre(other);
+  }
+
+  private int compareNumbers(JavaVersion other, int length) {
+    for (int x = 0; x < length; x += 1) {
+      int a = x < m_numbers.length ? m_numbers[x] : 0;
+      int b = x < other.m_numbers.length ? other.m_numbers[x] : 0;
+      if (a != b) {
+        return Integer.compare(a, b);
+      }
+    }
+    return 0;
+  }
+
+  private int comparePre(JavaVersion other) {
+    if (m_pre == null) {
+      return other.m_pre == null ? 0 : 1;
+    }
+    if (other.m_pre == null) {
+      return -1;
+    }
+    return m_pre.compareTo(other.m_pre);
+  }
+
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof JavaVersion)) {
+      return false;
+    }
+    return compareTo((JavaVersion)o) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    int length = m_numbers.length;
+    while (length > 1 && m_numbers[length - 1] == 0) {
+      length -= 1;
+    }
+    return 31 * Arrays.hashCode(Arrays.copyOf(m_numbers, length)) + (m_pre == null ? 0 : m_pre.hashCode());
+  }
+
+  @Override
+  public String toString() {
+    return m_text;
+  }
+}
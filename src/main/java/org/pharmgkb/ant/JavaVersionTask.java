@@ -0,0 +1,88 @@
+package org.pharmgkb.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+
+/**
+ * This task checks that the Java version used to build the project is in a specified range.
+ * <p>
+ * Ranges use interval notation: {@code [11,22)} means 11 or later, but before 22.  Either bound can be left out (e.g.
+ * {@code [11,)}), and {@code [17]} means any 17 release.  Like {@link MinimumJavaVersionTask} and
+ * {@link MaximumJavaVersionTask}, bounds are only compared as far as they are specified, so {@code 17.0.2} is in
+ * {@code [11,17]} but not in {@code [11,17)}.
+ *
+ * @author Mark Woon
+ */
+public class JavaVersionTask extends Task {
+  private String m_range;
+
+  public void setRange(String range) {
+    m_range = range;
+  }
+
+  @Override
+  public void execute() throws BuildException {
+
+    if (m_range == null) {
+      throw new BuildException("Missing range parameter");
+    }
+
+    JavaVersion current;
+    boolean inRange;
+    try {
+      current = JavaVersion.current();
+      inRange = isInRange(current, m_range);
+    } catch (IllegalArgumentException ex) {
+      throw new BuildException(ex.getMessage(), ex);
+    }
+    if (!inRange) {
+      throw new BuildException("Build requires Java version in " + m_range + " but running on " + current);
+    }
+  }
+
+
+  /**
+   * Checks if {@code version} is in {@code range}.
+   *
+   * @throws IllegalArgumentException if {@code range} is not a valid range
+   */
+  static boolean isInRange(JavaVersion version, String range) {
+
+    String text = range.trim();
+    if (text.length() < 3) {
+      throw new IllegalArgumentException("Invalid range: '" + range + "'");
+    }
+    char open = text.charAt(0);
+    char close = text.charAt(text.length() - 1);
+    if ((open != '[' && open != '(') || (close != ']' && close != ')')) {
+      throw new IllegalArgumentException("Invalid range: '" + range + "'");
+    }
+    String body = text.substring(1, text.length() - 1);
+    int idx = body.indexOf(',');
+    String lower;
+    String upper;
+    if (idx == -1) {
+      if (open != '[' || close != ']') {
+        throw new IllegalArgumentException("Invalid range: '" + range + "'");
+      }
+      lower = body;
+      upper = body;
+    } else {
+      lower = body.substring(0, idx).trim();
+      upper = body.substring(idx + 1).trim();
+    }
+
+    if (!lower.isEmpty()) {
+      int rez = version.compareToPrefix(JavaVersion.parse(lower));
+      if (rez < 0 || (rez == 0 && open == '(')) {
+        return false;
+      }
+    }
+    if (!upper.isEmpty()) {
+      int rez = version.compareToPrefix(JavaVersion.parse(upper));
+      return rez < 0 || (rez == 0 && close == ']');
+    }
+    return true;
+  }
+}
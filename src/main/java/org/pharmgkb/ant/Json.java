@@ -0,0 +1,72 @@
+package org.pharmgkb.ant;
+
+/**
+ * Minimal helpers for writing JSON by hand.
+ *
+ * @author Mark Woon
+ */
+final class Json {
+
+  private Json() {
+  }
+
+
+  /**
+   * Appends {@code text} to {@code builder} as a quoted and escaped JSON string, or {@code null} if {@code text} is
+   * null.
+   */
+  static StringBuilder quote(StringBuilder builder, String text) {
+    if (text == null) {
+      return builder.append("null");
+    }
+    builder.append('"');
+    for (int x = 0; x < text.length(); x += 1) {
+      char c = text.charAt(x);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (Character.isHighSurrogate(c) && x + 1 < text.length() && Character.isLowSurrogate(text.charAt(x + 1))) {
+            builder.append(c)
+                .append(text.charAt(x + 1));
+            x += 1;
+          } else if (c < 0x20 || Character.isSurrogate(c)) {
+            // lone surrogates can't be encoded in UTF-8, so they have to be escaped
+            builder.append(String.format("\\u%04x", (int)c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"');
+  }
+
+  /**
+   * Appends {@code "name":} followed by {@code value} as a JSON string to {@code builder}.
+   */
+  static StringBuilder field(StringBuilder builder, String name, String value) {
+    quote(builder, name).append(':');
+    return quote(builder, value);
+  }
+
+  /**
+   * Appends {@code "name":} followed by {@code value} to {@code builder}.
+   */
+  static StringBuilder field(StringBuilder builder, String name, long value) {
+    return quote(builder, name).append(':')
+        .append(value);
+  }
+}
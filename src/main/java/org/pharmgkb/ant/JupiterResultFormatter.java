@@ -1,15 +1,32 @@
 package org.pharmgkb.ant;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.tools.ant.taskdefs.optional.junitlauncher.TestExecutionContext;
 import org.apache.tools.ant.taskdefs.optional.junitlauncher.TestResultFormatter;
 import org.junit.platform.engine.TestDescriptor;
@@ -32,20 +49,136 @@
  * If the property {@code testReportProblemsOnly} is set to true, only skipped/failed/aborted tests will be listed
  * (no stats).
  * <p>
+ * Unless {@code testReportProblemsOnly} is set, the report ends with the slowest tests and test classes.  The number of
+ * each to list is controlled by the property {@code testReportSlowest} (defaults to 10, set to 0 to leave them out).
+ * <p>
+ * Numeric properties that can't be parsed are ignored (with a warning), and their defaults used instead.
+ * <p>
+ * If the property {@code testReportHistory} is set to true, the durations of successful tests are saved in
+ * {@code testReportDir}, and tests that are slower than usual are listed (see {@link DurationHistory}).  A test is
+ * slower than usual if it is slower than the 95th percentile of its past durations and slower than its median
+ * duration times {@code testReportRegressionThreshold} (defaults to 1.5).
+ * <p>
+ * The last status and duration of every test is saved in {@code test-index.tsv} in {@code testReportDir} (see
+ * {@link TestIndex}), which {@link TestOrderTask} uses to run tests that failed recently first.  Set the property
+ * {@code testReportIndex} to false to turn this off.
+ * <p>
+ * When tests are split into shards (see {@link TestShardTask}) that run at the same time, set the property
+ * {@code testReportShard} to a different name for each shard.  Each shard then writes to its own
+ * {@code index-<shard>.txt}, {@code index-<shard>.jsonl} and {@code test-index-<shard>.tsv}, which can be combined
+ * afterwards with {@link MergeTestReportsTask}.
+ * <p>
+ * When tests run in several JVMs at the same time (e.g. forked {@code junitlauncher} runs), set the property
+ * {@code testReportForkStats} to true.  Each JVM then writes its own {@code index-<fork>.txt} and
+ * {@code index-<fork>.jsonl}, along with its per-class counts in {@code testReportDir/stats} (see {@link ForkStats}),
+ * and {@link MergeTestReportsTask} combines them into a single report and a summary with totals across all forks.
+ * Otherwise, reports from different JVMs are appended to {@code index.txt} and {@code index.jsonl} while holding a
+ * lock on them, so they never get interleaved.
+ * <p>
+ * If the property {@code testReportMetrics} is set to true, per-class counts and durations, along with histograms of
+ * test and class durations, are written to {@code test-metrics.prom} (or {@code test-metrics-<shard>.prom}, or
+ * {@code test-metrics-<fork>.prom} with a {@code fork} label when forks write their own reports) in OpenMetrics format
+ * when the test plan finishes (see {@link TestMetrics}), for a Prometheus node-exporter textfile collector to pick up.
+ * The file goes in {@code testReportDir} unless the property {@code testReportMetricsDir} is set.  Fork IDs differ from
+ * run to run, so per-fork files should go in a directory that is cleared before each run.
+ * <p>
+ * If the property {@code testReportJsonl} is set to true, events are also streamed to {@code index.jsonl} (in JSON
+ * Lines format) as they happen: one JSON object per plan start/finish, test start/finish/skip and report entry.  Times
+ * ({@code nanos}) are in nanoseconds since the test plan started.  Events are written in UTF-8, in batches of whole lines
+ * (each appended while holding a lock on the file).  Only the events are streamed: the text report is kept in memory
+ * until the test plan finishes, so that it can be appended to {@code index.txt} in one go.
+ * <p>
+ * Failed tests are listed with their exception and the lines of the stack trace that come from the test class.  Each
+ * distinct stack trace is only printed once, and later failures with the same stack trace refer back to it.  Stack
+ * traces shared by several failures are listed (with counts) at the end of the report.
+ * <p>
+ * Output that tests write to {@code System.out}/{@code System.err} is captured per test (see {@link CapturedOutput}).
+ * {@code junitlauncher} delivers output asynchronously, so it is given to the test that is running when it arrives if
+ * exactly one test is running (output that arrives late can end up with the next test).  Output that arrives while no
+ * test or several tests are running (e.g. from class setup or parallel tests) is collected for the whole test plan.
+ * What to do with it is controlled by the property {@code testReportOutput}: {@code failures} (the default) lists the
+ * output of each failed test under its {@code FAILED:} entry, and the test plan's output at the end of the report if
+ * any test failed; {@code all} lists the output of every test, and the test plan's output, regardless; and
+ * {@code none} ignores it.  Output of passing tests is otherwise discarded as soon as they finish.  Output longer than
+ * the property {@code testReportMaxOutput} (in bytes per test and stream, defaults to 1MB) is spilled to a file in
+ * {@code testReportDir}, and only its head and tail are included in the report (see {@link OutputBuffer}).
+ * <p>
+ * If the property {@code testReportAsync} is set to true, output is written out in batches on a background thread.
+ * Everything is written out by the time the test plan finishes.
+ * <p>
+ * If the property {@code testReportProgress} is set to a number of seconds, a status line is printed at that interval
+ * while tests are running: how many tests have finished out of the total, how many have failed, tests per second and
+ * an estimate of how long the rest will take.  The estimate is based on how long the remaining tests took the last time
+ * they ran (from {@link TestIndex}) when possible, or on the number of tests left otherwise.  The line notes when no
+ * test has finished since the last one, so stalled runs stand out.  Status lines are printed from a background thread
+ * (running tests only update counters), through the same writer as the rest of the console output, but aren't included
+ * in the report.
+ * <p>
+ * This is safe to use with parallel test execution ({@code junit.jupiter.execution.parallel.enabled}).  Results for
+ * each test class are collected separately and written out in one go when the class finishes.
+ * <p>
  * Based on https://www.selikoff.net/2018/07/28/ant-and-junit-5-outputting-test-duration-and-failure-to-the-log/
  *
  * @author Mark Woon
  */
 public class JupiterResultFormatter implements TestResultFormatter {
+  /** Number of formatters created in this JVM, to tell their files apart. */
+  private static final AtomicInteger sf_formatterCount = new AtomicInteger();
   /** Theoretically used for writing the results.  Doesn't seem to actually do anything. */
   private PrintWriter m_outputWriter;
   private String m_filename;
+  private File m_reportDir;
   private boolean m_problemsOnly;
+  private boolean m_async;
+  private int m_slowestCount;
+  private boolean m_history;
+  private double m_regressionThreshold;
+  private String m_jsonFilename;
+  private boolean m_jsonl;
+  private boolean m_index;
+  private String m_shard;
+  /** Per-class counts for {@link MergeTestReportsTask}, if {@code testReportForkStats} is enabled. */
+  private ForkStats m_forkStats;
+  private boolean m_writeForkStats;
+  /** Counts and durations for a textfile collector, if {@code testReportMetrics} is enabled. */
+  private TestMetrics m_metrics;
+  private File m_metricsFile;
+  /** Distinguishes this JVM's files from those of other shards/forks, null if they aren't split up. */
+  private String m_reportId;
+  private PrintWriter m_jsonFile;
+  private AsyncLineWriter m_jsonWriter;
+  private long m_planStarted;
+  private AsyncLineWriter m_asyncWriter;
+  private boolean m_captureOutput;
+  private boolean m_showAllOutput;
+  private long m_maxOutput;
+  /** Seconds between progress lines, 0 if disabled. */
+  private long m_progressInterval;
+  private Progress m_progress;
 
   private TestPlan m_currentTestPlan;
+  /** The text report, kept in memory until the test plan finishes. */
   private StringWriter m_testResults;
   private PrintWriter m_testPrinter;
-  private final Map<String, TestClassStats> m_testedClasses = new HashMap<>();
+  private final Map<String, TestClassStats> m_testedClasses = new ConcurrentHashMap<>();
+  /** Maps unique IDs of running tests to start times (from {@link System#nanoTime()}). */
+  private final Map<String, Long> m_testStarts = new ConcurrentHashMap<>();
+  private Slowest m_slowestTests;
+  private Slowest m_slowestClasses;
+  /** Durations (in nanoseconds) of tests that succeeded, for {@link DurationHistory}. */
+  private final Map<String, Long> m_durations = new ConcurrentHashMap<>();
+  /** Guards {@link #m_testOutput} and {@link #m_planOutput}. */
+  private final Object m_outputLock = new Object();
+  /** Maps unique IDs of running tests to the output they've written so far. */
+  private final Map<String, CapturedOutput> m_testOutput = new HashMap<>();
+  /** Output that can't be tied to a single test, null if output isn't captured. */
+  private CapturedOutput m_planOutput;
+  private volatile boolean m_anyFailed;
+  /** Stack traces of failed tests, so that each distinct stack trace is only printed once. */
+  private final Map<TraceKey, FailureTrace> m_failureTraces = new ConcurrentHashMap<>();
+  private final AtomicInteger m_failureTraceCount = new AtomicInteger();
+  /** Outcomes of tests that have finished, for {@link TestIndex}. */
+  private final Map<String, IndexUpdate> m_indexUpdates = new ConcurrentHashMap<>();
 
 
 
@@ -62,21 +195,101 @@ public void setContext(TestExecutionContext context) {
     if (dir.endsWith("/")) {
       dir = dir.substring(0, dir.length() - 1);
     }
-    m_filename = dir + "/index.txt";
+    m_shard = context.getProperties().getProperty("testReportShard");
+    if (m_shard != null && m_shard.isEmpty()) {
+      m_shard = null;
+    }
+    m_writeForkStats = Boolean.parseBoolean(context.getProperties().getProperty("testReportForkStats", "false"));
+    if (m_shard != null) {
+      m_reportId = m_shard;
+    } else if (m_writeForkStats) {
+      m_reportId = getForkId();
+    } else {
+      m_reportId = null;
+    }
+    String suffix = m_reportId == null ? "" : "-" + m_reportId;
+    m_filename = dir + "/index" + suffix + ".txt";
+    m_reportDir = new File(dir);
+    m_jsonFilename = dir + "/index" + suffix + ".jsonl";
 
     String problemsOnly = context.getProperties().getProperty("testReportProblemsOnly", "true");
     m_problemsOnly = Boolean.parseBoolean(problemsOnly);
+
+    m_async = Boolean.parseBoolean(context.getProperties().getProperty("testReportAsync", "false"));
+
+    // these are stats, so they don't belong in a problems-only report
+    m_slowestCount = m_problemsOnly ? 0 : (int)getNumber(context, "testReportSlowest", 10);
+
+    m_history = Boolean.parseBoolean(context.getProperties().getProperty("testReportHistory", "false"));
+    m_regressionThreshold = getNumber(context, "testReportRegressionThreshold", 1.5);
+
+    m_jsonl = Boolean.parseBoolean(context.getProperties().getProperty("testReportJsonl", "false"));
+
+    m_index = Boolean.parseBoolean(context.getProperties().getProperty("testReportIndex", "true"));
+    if (Boolean.parseBoolean(context.getProperties().getProperty("testReportMetrics", "false"))) {
+      m_metricsFile = new File(context.getProperties().getProperty("testReportMetricsDir", dir),
+          "test-metrics" + suffix + ".prom");
+    } else {
+      m_metricsFile = null;
+    }
+
+    String output = context.getProperties().getProperty("testReportOutput", "failures").toLowerCase(Locale.ROOT);
+    if (!output.equals("failures") && !output.equals("all") && !output.equals("none")) {
+      throw new IllegalArgumentException("Unsupported testReportOutput: '" + output +
+          "' (expecting failures, all or none)");
+    }
+    m_captureOutput = !output.equals("none");
+    m_showAllOutput = output.equals("all");
+    m_maxOutput = (long)getNumber(context, "testReportMaxOutput", 1048576);
+    m_progressInterval = (long)getNumber(context, "testReportProgress", 0);
+  }
+
+  /**
+   * Gets a numeric property, falling back to {@code defaultValue} if it isn't set or can't be parsed.
+   */
+  private static double getNumber(TestExecutionContext context, String name, double defaultValue) {
+    String value = context.getProperties().getProperty(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException ex) {
+      System.err.println("Invalid value for " + name + ": '" + value + "' (using the default)");
+      return defaultValue;
+    }
   }
 
 
   @Override
   public void sysOutAvailable(byte[] data) {
-    // ignored
+    synchronized (m_outputLock) {
+      CapturedOutput output = getOutput();
+      if (output != null) {
+        output.out(data);
+      }
+    }
   }
 
   @Override
   public void sysErrAvailable(byte[] data) {
-    // ignored
+    synchronized (m_outputLock) {
+      CapturedOutput output = getOutput();
+      if (output != null) {
+        output.err(data);
+      }
+    }
+  }
+
+  /**
+   * Gets where output that has just arrived goes: the running test if there is exactly one, otherwise the test plan.
+   * Must hold {@link #m_outputLock}, and keep holding it while writing, so the test can't finish in the meantime.
+   */
+  private CapturedOutput getOutput() {
+    if (m_testOutput.size() == 1) {
+      return m_testOutput.values().iterator().next();
+    }
+    return m_planOutput;
   }
 
   //-- END TestResultFormatter methods --//
@@ -84,6 +297,64 @@ public void sysErrAvailable(byte[] data) {
 
   @Override
   public void close() {
+    stopProgress();
+    closeAsyncWriter();
+    closeJsonWriter();
+    closeOutput();
+    if (m_outputWriter != null) {
+      m_outputWriter.flush();
+    }
+  }
+
+  /**
+   * Waits for everything queued on the async writer (if any) to be written.
+   */
+  private void closeAsyncWriter() {
+    if (m_asyncWriter != null) {
+      m_asyncWriter.close();
+      m_asyncWriter = null;
+    }
+  }
+
+  private void stopProgress() {
+    if (m_progress != null) {
+      m_progress.stop();
+      m_progress = null;
+    }
+  }
+
+  private void closeJsonWriter() {
+    if (m_jsonWriter != null) {
+      m_jsonWriter.close();
+      m_jsonWriter = null;
+      m_jsonFile.close();
+      m_jsonFile = null;
+    }
+  }
+
+  /**
+   * Releases all captured output.
+   */
+  private void closeOutput() {
+    synchronized (m_outputLock) {
+      m_testOutput.values().forEach(CapturedOutput::close);
+      m_testOutput.clear();
+      if (m_planOutput != null) {
+        m_planOutput.close();
+        m_planOutput = null;
+      }
+    }
+  }
+
+  /**
+   * Stops capturing output for a test.
+   *
+   * @return the test's output, or null if output isn't captured
+   */
+  private CapturedOutput removeOutput(TestIdentifier testIdentifier) {
+    synchronized (m_outputLock) {
+      return m_testOutput.remove(testIdentifier.getUniqueId());
+    }
   }
 
   private boolean isEngineContainer(TestIdentifier testIdentifier) {
@@ -104,6 +375,17 @@ private String getParentClassName(TestIdentifier testIdentifier) {
     throw new IllegalStateException("Cannot get parent class name");
   }
 
+  /**
+   * Gets the name of the class {@code testIdentifier} belongs to, or null if it doesn't belong to a class.
+   */
+  private String getClassName(TestIdentifier testIdentifier) {
+    TestSource source = testIdentifier.getSource().orElse(null);
+    if (source instanceof MethodSource || source instanceof ClassSource) {
+      return getParentClassName(testIdentifier);
+    }
+    return null;
+  }
+
   private String getFullTestName(TestIdentifier testIdentifier) {
     if (testIdentifier.getType() == TestDescriptor.Type.TEST) {
       return getParentClassName(testIdentifier) + "." + testIdentifier.getDisplayName();
@@ -112,14 +394,201 @@ private String getFullTestName(TestIdentifier testIdentifier) {
   }
 
 
+  /**
+   * Formats why a test failed for the report.
+   */
+  private String formatFailure(TestIdentifier testIdentifier, Throwable error) {
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    writer.print("    (" + error.getClass().getSimpleName() + "): " +
+        ((error.getMessage() != null) ? error.getMessage() : error));
+
+    FailureTrace trace = m_failureTraces.computeIfAbsent(new TraceKey(error),
+        k -> new FailureTrace(m_failureTraceCount.incrementAndGet(), testIdentifier.getUniqueId(),
+            getFullTestName(testIdentifier), error));
+    trace.count.increment();
+    // compare unique IDs, display names aren't unique (e.g. parameterized tests)
+    if (trace.firstId.equals(testIdentifier.getUniqueId())) {
+      writer.println(" [trace #" + trace.id + "]");
+      ResultFormatter.filterErrorTrace(writer, getParentClassName(testIdentifier), error);
+    } else {
+      writer.println();
+      writer.println("    (same stack trace as #" + trace.id + ": " + trace.firstTest + ")");
+    }
+    writer.flush();
+    // drop trailing line break
+    buffer.getBuffer().setLength(buffer.getBuffer().length() - System.lineSeparator().length());
+    return buffer.toString();
+  }
+
+  /**
+   * Prints the output that isn't tied to a single test (if there is any and it's wanted) and releases all captured
+   * output.
+   */
+  private void printOutput() {
+    String text = null;
+    synchronized (m_outputLock) {
+      if (m_planOutput != null && (m_showAllOutput || m_anyFailed)) {
+        text = m_planOutput.format();
+      }
+    }
+    if (text != null) {
+      m_testPrinter.println("Output (not tied to a single test):");
+      m_testPrinter.println(text);
+      m_testPrinter.println();
+    }
+    closeOutput();
+  }
+
+  /**
+   * Prints stack traces that were shared by several failures, most common first.
+   */
+  private void printRepeatedFailures() {
+    List<FailureTrace> traces = new ArrayList<>();
+    for (FailureTrace trace : m_failureTraces.values()) {
+      if (trace.count.sum() > 1) {
+        traces.add(trace);
+      }
+    }
+    if (traces.isEmpty()) {
+      return;
+    }
+    traces.sort(Comparator.comparingLong((FailureTrace t) -> t.count.sum()).reversed()
+        .thenComparingInt(t -> t.id));
+    m_testPrinter.println("Repeated failures:");
+    for (FailureTrace trace : traces) {
+      m_testPrinter.println("  " + trace.count.sum() + " x #" + trace.id + " (" + trace.type + ") first in " +
+          trace.firstTest);
+    }
+    m_testPrinter.println();
+  }
+
+
+  private static String prettyDuration(long nanos) {
+    return Duration.ofNanos(nanos).toString()
+        .substring(2)
+        .replaceAll("(\\d[HMS])(?!$)", "$1 ")
+        .toLowerCase();
+  }
+
+
+  /**
+   * Formats a progress line.
+   *
+   * @param elapsed nanoseconds since the test plan started
+   * @param expectedDone how long the tests that have finished took the last time they ran (in nanoseconds), or 0 if
+   * there isn't any history
+   * @param expectedLeft how long the tests that haven't finished took the last time they ran (in nanoseconds)
+   * @param stalled nanoseconds since a test last finished, or 0 if one has finished since the last progress line
+   */
+  static String formatProgress(long done, long total, long failed, long elapsed, long expectedDone, long expectedLeft,
+      long stalled) {
+
+    StringBuilder builder = new StringBuilder("Progress: ")
+        .append(done)
+        .append('/')
+        .append(total);
+    if (total > 0) {
+      builder.append(" (")
+          .append(done * 100 / total)
+          .append("%)");
+    }
+    builder.append(", ")
+        .append(failed)
+        .append(" failed, ")
+        .append(String.format(Locale.ROOT, "%.1f", elapsed > 0 ? done * 1e9 / elapsed : 0.0))
+        .append(" tests/s, ETA ");
+    double eta;
+    if (expectedDone > 0) {
+      // scale by how fast this run has been compared to the last one
+      eta = (double)elapsed * expectedLeft / expectedDone;
+    } else if (done > 0) {
+      eta = (double)elapsed * Math.max(total - done, 0) / done;
+    } else {
+      eta = -1;
+    }
+    if (eta < 0) {
+      builder.append("unknown");
+    } else {
+      builder.append(prettyDuration(TimeUnit.SECONDS.toNanos(Math.round(eta / 1e9))));
+    }
+    if (stalled > 0) {
+      builder.append(" (nothing finished in ")
+          .append(prettyDuration(TimeUnit.SECONDS.toNanos(TimeUnit.NANOSECONDS.toSeconds(stalled))))
+          .append(")");
+    }
+    return builder.toString();
+  }
+
+
   private TestClassStats getStats(TestIdentifier testIdentifier) {
     return m_testedClasses.computeIfAbsent(getParentClassName(testIdentifier), TestClassStats::new);
   }
 
-  private void println(String txt) {
-    System.out.println(txt);
+  private synchronized void println(String txt) {
     m_testPrinter.println(txt);
-    m_outputWriter.println(txt);
+    printConsole(txt);
+  }
+
+  /**
+   * Prints to the console only, not to the report.
+   */
+  private synchronized void printConsole(String txt) {
+    if (m_asyncWriter == null || !m_asyncWriter.println(txt)) {
+      System.out.println(txt);
+      m_outputWriter.println(txt);
+    }
+  }
+
+
+
+  /**
+   * Writes out the results for a test class.  This is synchronized so that results for different classes don't get
+   * interleaved.
+   */
+  private synchronized void writeResults(TestClassStats stats) {
+    if (m_forkStats != null || m_metrics != null) {
+      long[] counts = stats.getCounts();
+      if (m_forkStats != null) {
+        m_forkStats.add(stats.className, counts);
+      }
+      if (m_metrics != null) {
+        m_metrics.addClass(stats.className, counts);
+      }
+    }
+    if (m_problemsOnly) {
+      if (stats.hasProblem() || stats.hasOutput()) {
+        m_testPrinter.println(stats);
+      }
+    } else {
+      stats.writeStats();
+      println(stats.toString());
+    }
+  }
+
+
+
+  /**
+   * Starts a JSON event.  Finish it off with {@link #writeEvent(StringBuilder)}.
+   *
+   * @param testIdentifier the test the event is about, may be null
+   */
+  private StringBuilder startEvent(String event, TestIdentifier testIdentifier) {
+    StringBuilder builder = new StringBuilder("{");
+    Json.field(builder, "event", event).append(',');
+    Json.field(builder, "nanos", System.nanoTime() - m_planStarted);
+    if (testIdentifier != null) {
+      builder.append(',');
+      Json.field(builder, "uniqueId", testIdentifier.getUniqueId()).append(',');
+      Json.field(builder, "class", getClassName(testIdentifier)).append(',');
+      Json.field(builder, "displayName", testIdentifier.getDisplayName()).append(',');
+      Json.field(builder, "type", testIdentifier.getType().name());
+    }
+    return builder;
+  }
+
+  private void writeEvent(StringBuilder builder) {
+    m_jsonWriter.println(builder.append('}').toString());
   }
 
 
@@ -132,27 +601,94 @@ public void testPlanExecutionStarted(TestPlan testPlan) {
     m_testResults = new StringWriter();
     m_testPrinter = new PrintWriter(m_testResults);
     m_testedClasses.clear();
+    m_testStarts.clear();
+    m_durations.clear();
+    closeOutput();
+    m_anyFailed = false;
+    if (m_captureOutput) {
+      synchronized (m_outputLock) {
+        m_planOutput = new CapturedOutput(m_maxOutput, m_reportDir);
+      }
+    }
+    m_failureTraces.clear();
+    m_failureTraceCount.set(0);
+    m_indexUpdates.clear();
+    m_slowestTests = new Slowest(m_slowestCount);
+    m_slowestClasses = new Slowest(m_slowestCount);
+    m_planStarted = System.nanoTime();
+    m_forkStats = m_writeForkStats ? new ForkStats() : null;
+    m_metrics = m_metricsFile != null ? new TestMetrics(m_shard, m_shard == null ? m_reportId : null) : null;
+    if (m_async) {
+      closeAsyncWriter();
+      m_asyncWriter = new AsyncLineWriter("JupiterResultFormatter output", new PrintWriter(System.out),
+          m_outputWriter);
+    }
+    if (m_jsonl) {
+      closeJsonWriter();
+      m_jsonFile = new PrintWriter(new LockedAppendWriter(new File(m_jsonFilename)));
+      m_jsonWriter = new AsyncLineWriter("JupiterResultFormatter events", m_jsonFile);
+      StringBuilder event = startEvent("planStarted", null).append(',');
+      writeEvent(Json.field(event, "timestamp", System.currentTimeMillis()));
+    }
+    stopProgress();
+    if (m_progressInterval > 0) {
+      m_progress = new Progress(testPlan);
+    }
   }
 
   @Override
   public void testPlanExecutionFinished(TestPlan testPlan) {
-    if (m_problemsOnly) {
-      m_testedClasses.values().stream()
-          .filter(TestClassStats::hasProblem)
-          .forEach(stats -> m_testPrinter.println(stats));
-    } else {
-      m_testedClasses.values().forEach(stats -> {
-        stats.writeStats();
-        println(stats.toString());
-      });
+    if (m_progress != null) {
+      m_progress.print();
+      stopProgress();
+    }
+    // write out classes that never finished (e.g. skipped classes)
+    m_testedClasses.values().forEach(this::writeResults);
+    m_testedClasses.clear();
+    printOutput();
+    printRepeatedFailures();
+    m_slowestTests.print("Slowest tests:");
+    m_slowestClasses.print("Slowest test classes:");
+    if (m_history) {
+      DurationHistory history = DurationHistory.get(m_reportDir);
+      List<String> regressions = history.findRegressions(m_durations, m_regressionThreshold);
+      if (!regressions.isEmpty()) {
+        println("Slower than usual:");
+        regressions.forEach(r -> println("  " + r));
+        println("");
+      }
+      history.append(m_durations);
+    }
+    if (m_index && !m_indexUpdates.isEmpty()) {
+      TestIndex.update(m_reportDir, m_shard, index ->
+          m_indexUpdates.forEach((id, u) -> index.put(id, u.className, u.status.name(), u.nanos, u.timestamp)));
+      m_indexUpdates.clear();
     }
     m_testPrinter.flush();
+    closeAsyncWriter();
+    if (m_jsonWriter != null) {
+      writeEvent(startEvent("planFinished", null));
+      closeJsonWriter();
+    }
 
-    try (FileWriter writer = new FileWriter(m_filename, true)) {
-      writer.write(m_testResults.toString());
-    } catch (IOException ex) {
-      throw new UncheckedIOException("Error writing test results", ex);
+    if (m_forkStats != null) {
+      m_forkStats.save(m_reportDir, m_reportId);
+    }
+    if (m_metrics != null) {
+      m_metrics.save(m_metricsFile);
     }
+    // other JVMs may be writing to the same file if reports aren't split up
+    ForkStats.appendLocked(new File(m_filename), m_testResults.toString());
+  }
+
+  /**
+   * Gets an ID for this formatter that is unique across forks.
+   */
+  private static String getForkId() {
+    // this is pid@hostname on most JVMs
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    return "fork-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + System.currentTimeMillis() + "-" +
+        sf_formatterCount.incrementAndGet();
   }
 
 
@@ -160,13 +696,33 @@ public void testPlanExecutionFinished(TestPlan testPlan) {
   public void dynamicTestRegistered(TestIdentifier testIdentifier) {
     // TODO(markwoon): not sure how to use this yet
     println("dynamicTestRegistered: " + getFullTestName(testIdentifier));
+    if (m_progress != null && testIdentifier.isTest()) {
+      m_progress.registered();
+    }
   }
 
 
   @Override
   public void executionSkipped(TestIdentifier testIdentifier, String reason) {
+    if (isEngineContainer(testIdentifier)) {
+      return;
+    }
+    if (m_jsonWriter != null) {
+      StringBuilder event = startEvent("skipped", testIdentifier).append(',');
+      writeEvent(Json.field(event, "reason", reason));
+    }
     TestClassStats stats = getStats(testIdentifier);
     stats.skipped(testIdentifier, reason);
+    if (m_progress != null) {
+      if (testIdentifier.isTest()) {
+        m_progress.finished(testIdentifier.getUniqueId(), false);
+      }
+      for (TestIdentifier tid : m_currentTestPlan.getDescendants(testIdentifier)) {
+        if (tid.isTest()) {
+          m_progress.finished(tid.getUniqueId(), false);
+        }
+      }
+    }
   }
 
   @Override
@@ -174,10 +730,21 @@ public void executionStarted(TestIdentifier testIdentifier) {
     if (isEngineContainer(testIdentifier)) {
       return;
     }
+    if (m_jsonWriter != null) {
+      writeEvent(startEvent("started", testIdentifier));
+    }
     if (testIdentifier.isContainer()) {
       // initialize stats
       getStats(testIdentifier);
     }
+    if (testIdentifier.isTest()) {
+      if (m_captureOutput) {
+        synchronized (m_outputLock) {
+          m_testOutput.put(testIdentifier.getUniqueId(), new CapturedOutput(m_maxOutput, m_reportDir));
+        }
+      }
+      m_testStarts.put(testIdentifier.getUniqueId(), System.nanoTime());
+    }
   }
 
   @Override
@@ -186,20 +753,99 @@ public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult
       return;
     }
     if (testIdentifier.isTest()) {
+      CapturedOutput output = removeOutput(testIdentifier);
+      Long started = m_testStarts.remove(testIdentifier.getUniqueId());
+      long nanos = -1;
+      if (started != null) {
+        nanos = System.nanoTime() - started;
+        m_slowestTests.add(getFullTestName(testIdentifier), nanos);
+        if (m_metrics != null) {
+          m_metrics.addTest(nanos);
+        }
+        if (m_history && testExecutionResult.getStatus() == Status.SUCCESSFUL) {
+          m_durations.put(getFullTestName(testIdentifier), nanos);
+        }
+      }
+      if (m_jsonWriter != null) {
+        writeFinishedEvent(testIdentifier, testExecutionResult, nanos);
+      }
+      if (m_index) {
+        m_indexUpdates.put(testIdentifier.getUniqueId(), new IndexUpdate(getParentClassName(testIdentifier),
+            testExecutionResult.getStatus(), nanos));
+      }
+      if (m_progress != null) {
+        m_progress.finished(testIdentifier.getUniqueId(), testExecutionResult.getStatus() == Status.FAILED);
+      }
       TestClassStats stats = getStats(testIdentifier);
       if (testExecutionResult.getStatus() == Status.SUCCESSFUL) {
         stats.succeeded();
       } else if (testExecutionResult.getStatus() == Status.ABORTED) {
         stats.aborted(testIdentifier);
       } else if (testExecutionResult.getStatus() == Status.FAILED) {
-        stats.failed(testIdentifier);
+        m_anyFailed = true;
+        stats.failed(testIdentifier, testExecutionResult.getThrowable()
+                .map(t -> formatFailure(testIdentifier, t))
+                .orElse(null),
+            output == null ? null : output.format());
+      }
+      if (output != null) {
+        if (m_showAllOutput && testExecutionResult.getStatus() != Status.FAILED) {
+          stats.output(testIdentifier, output.format());
+        }
+        // passing tests' output is discarded here
+        output.close();
       }
+    } else {
+      if (m_jsonWriter != null) {
+        writeFinishedEvent(testIdentifier, testExecutionResult, -1);
+      }
+      if (testIdentifier.getSource().orElse(null) instanceof ClassSource) {
+        // class is done, nothing else will be added to its stats
+        TestClassStats stats = m_testedClasses.remove(getParentClassName(testIdentifier));
+        if (stats != null) {
+          stats.finished();
+          m_slowestClasses.add(stats.className, stats.getElapsed());
+          writeResults(stats);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a JSON event for a test or container that has finished.
+   *
+   * @param nanos how long it took, -1 if unknown
+   */
+  private void writeFinishedEvent(TestIdentifier testIdentifier, TestExecutionResult result, long nanos) {
+    StringBuilder event = startEvent("finished", testIdentifier).append(',');
+    Json.field(event, "status", result.getStatus().name());
+    if (nanos >= 0) {
+      Json.field(event.append(','), "durationNanos", nanos);
     }
+    if (result.getThrowable().isPresent()) {
+      Throwable throwable = result.getThrowable().get();
+      Json.field(event.append(','), "throwable", throwable.getClass().getName());
+      Json.field(event.append(','), "message", throwable.getMessage());
+    }
+    writeEvent(event);
   }
 
 
   @Override
   public void reportingEntryPublished(TestIdentifier testIdentifier, ReportEntry entry) {
+    if (m_jsonWriter != null) {
+      StringBuilder event = startEvent("reportEntry", testIdentifier).append(',');
+      Json.field(event, "timestamp", entry.getTimestamp().toString()).append(",\"entries\":{");
+      boolean first = true;
+      for (Map.Entry<String, String> kv : entry.getKeyValuePairs().entrySet()) {
+        if (!first) {
+          event.append(',');
+        }
+        Json.field(event, kv.getKey(), kv.getValue());
+        first = false;
+      }
+      writeEvent(event.append('}'));
+    }
   }
   //-- END TestExecutionListener methods --//
 
@@ -207,11 +853,13 @@ public void reportingEntryPublished(TestIdentifier testIdentifier, ReportEntry e
 
   private final class TestClassStats {
     String className;
-    private int m_skipped;
-    private int m_succeeded;
-    private int m_aborted;
-    private int m_failed;
-    private final Instant m_started = Instant.now();
+    private final LongAdder m_skipped = new LongAdder();
+    private final LongAdder m_succeeded = new LongAdder();
+    private final LongAdder m_aborted = new LongAdder();
+    private final LongAdder m_failed = new LongAdder();
+    private final long m_started = System.nanoTime();
+    private volatile long m_finished;
+    private volatile boolean m_hasOutput;
     private final StringWriter m_buffer = new StringWriter();
 
     TestClassStats(String className) {
@@ -219,7 +867,7 @@ private final class TestClassStats {
       println(this.className);
     }
 
-    void println(String text) {
+    synchronized void println(String text) {
       m_buffer.append(text)
           .append("\n");
     }
@@ -228,12 +876,12 @@ void skipped(TestIdentifier testIdentifier, String reason) {
       if (testIdentifier.isContainer()) {
         for (TestIdentifier tid : m_currentTestPlan.getChildren(testIdentifier)) {
           if (tid.isTest()) {
-            m_skipped += 1;
+            m_skipped.increment();
             println("  SKIPPED: " + tid.getDisplayName() + " (" + reason + ")");
           }
         }
       } else {
-        m_skipped += 1;
+        m_skipped.increment();
         String prefix = "void " + getParentClassName(testIdentifier) + ".";
         if (reason.startsWith(prefix)) {
           String method = reason.substring(prefix.length());
@@ -255,38 +903,374 @@ void skipped(TestIdentifier testIdentifier, String reason) {
     }
 
     void aborted(TestIdentifier testIdentifier) {
-      m_aborted += 1;
+      m_aborted.increment();
       println("  ABORTED: " + testIdentifier.getDisplayName());
     }
 
-    void failed(TestIdentifier testIdentifier) {
-      println("  FAILED: " + testIdentifier.getDisplayName());
-      m_failed += 1;
+    /**
+     * @param failure formatted reason for the failure, may be null
+     * @param output formatted output of the test, may be null
+     */
+    void failed(TestIdentifier testIdentifier, String failure, String output) {
+      StringBuilder builder = new StringBuilder("  FAILED: ")
+          .append(testIdentifier.getDisplayName());
+      if (failure != null) {
+        builder.append("\n").append(failure);
+      }
+      if (output != null) {
+        builder.append("\n").append(output);
+      }
+      // one call so that it doesn't get interleaved with other tests
+      println(builder.toString());
+      m_failed.increment();
+    }
+
+    /**
+     * Lists the output of a test that didn't fail.
+     *
+     * @param output formatted output of the test, may be null
+     */
+    void output(TestIdentifier testIdentifier, String output) {
+      if (output != null) {
+        println("  OUTPUT: " + testIdentifier.getDisplayName() + "\n" + output);
+        m_hasOutput = true;
+      }
     }
 
     void succeeded() {
-      m_succeeded += 1;
+      m_succeeded.increment();
+    }
+
+    void finished() {
+      m_finished = System.nanoTime();
+    }
+
+    /**
+     * Gets the time elapsed (in nanoseconds) between when this class was started and when it finished (or now, if it
+     * hasn't finished).
+     */
+    long getElapsed() {
+      return (m_finished == 0 ? System.nanoTime() : m_finished) - m_started;
+    }
+
+    /**
+     * Gets counts in the form used by {@link ForkStats}.
+     */
+    long[] getCounts() {
+      long[] counts = new long[5];
+      counts[ForkStats.sf_succeeded] = m_succeeded.sum();
+      counts[ForkStats.sf_failed] = m_failed.sum();
+      counts[ForkStats.sf_aborted] = m_aborted.sum();
+      counts[ForkStats.sf_skipped] = m_skipped.sum();
+      counts[ForkStats.sf_nanos] = getElapsed();
+      return counts;
     }
 
     boolean hasProblem() {
-      return m_skipped > 0 || m_failed > 0 || m_aborted > 0;
+      return m_skipped.sum() > 0 || m_failed.sum() > 0 || m_aborted.sum() > 0;
+    }
+
+    /**
+     * Checks if the output of a test that didn't fail has been listed.
+     */
+    boolean hasOutput() {
+      return m_hasOutput;
     }
 
     void writeStats() {
-      int totalTestsInClass = m_succeeded + m_aborted + m_failed + m_skipped;
-      Duration duration = Duration.between(m_started, Instant.now());
-      String prettyDuration = duration.toString()
-          .substring(2)
-          .replaceAll("(\\d[HMS])(?!$)", "$1 ")
-          .toLowerCase();
+      long failed = m_failed.sum();
+      long aborted = m_aborted.sum();
+      long skipped = m_skipped.sum();
+      long totalTestsInClass = m_succeeded.sum() + aborted + failed + skipped;
+      String prettyDuration = prettyDuration(getElapsed());
       String output = String.format("  Tests run: %d, Failures: %d, Aborted: %d, Skipped: %d, Time elapsed: %s",
-          totalTestsInClass, m_failed, m_aborted, m_skipped, prettyDuration);
+          totalTestsInClass, failed, aborted, skipped, prettyDuration);
       println(output);
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
       return m_buffer.toString();
     }
   }
+
+
+  /**
+   * Keeps track of the N slowest things (tests or classes).
+   */
+  private final class Slowest {
+    private final int m_size;
+    /** Min-heap, so the fastest of the slowest is the one that gets bumped. */
+    private final PriorityQueue<Timing> m_queue = new PriorityQueue<>(Comparator.comparingLong(t -> t.nanos));
+
+    Slowest(int size) {
+      m_size = size;
+    }
+
+    synchronized void add(String name, long nanos) {
+      if (m_size <= 0) {
+        return;
+      }
+      if (m_queue.size() < m_size) {
+        m_queue.add(new Timing(name, nanos));
+      } else if (m_queue.peek().nanos < nanos) {
+        m_queue.poll();
+        m_queue.add(new Timing(name, nanos));
+      }
+    }
+
+    /**
+     * Prints the slowest, in descending order, to the report.
+     */
+    synchronized void print(String title) {
+      if (m_queue.isEmpty()) {
+        return;
+      }
+      List<Timing> timings = new ArrayList<>(m_queue);
+      timings.sort(Comparator.comparingLong((Timing t) -> t.nanos).reversed());
+      m_testPrinter.println(title);
+      for (Timing timing : timings) {
+        m_testPrinter.println("  " + prettyDuration(timing.nanos) + "  " + timing.name);
+      }
+      m_testPrinter.println();
+    }
+  }
+
+
+  /**
+   * Keeps track of how far along the test plan is, and prints a status line every {@code m_progressInterval} seconds
+   * on a daemon thread.
+   */
+  private final class Progress {
+    private final AtomicLong m_total;
+    private final LongAdder m_done = new LongAdder();
+    private final LongAdder m_failed = new LongAdder();
+    /** Durations (in nanoseconds) from the last run of tests that haven't finished yet. */
+    private final Map<String, Long> m_expected = new ConcurrentHashMap<>();
+    /** Duration assumed for tests without history, 0 if there isn't any history. */
+    private final long m_averageExpected;
+    private final LongAdder m_expectedDone = new LongAdder();
+    private final LongAdder m_expectedLeft = new LongAdder();
+    private final ScheduledExecutorService m_executor;
+    // only used by print(), which is synchronized
+    private long m_lastDone;
+    private long m_lastChange;
+
+    Progress(TestPlan testPlan) {
+      m_total = new AtomicLong(testPlan.countTestIdentifiers(TestIdentifier::isTest));
+
+      TestIndex index = TestIndex.load(m_reportDir, m_shard);
+      if (m_shard != null && index.getEntries().isEmpty()) {
+        index = TestIndex.load(m_reportDir);
+      }
+      Map<String, TestIndex.Entry> history = index.getEntries();
+      long unknown = 0;
+      if (!history.isEmpty()) {
+        for (TestIdentifier root : testPlan.getRoots()) {
+          for (TestIdentifier tid : testPlan.getDescendants(root)) {
+            if (tid.isTest()) {
+              TestIndex.Entry entry = history.get(tid.getUniqueId());
+              if (entry != null && entry.nanos >= 0) {
+                m_expected.put(tid.getUniqueId(), entry.nanos);
+                m_expectedLeft.add(entry.nanos);
+              } else {
+                unknown += 1;
+              }
+            }
+          }
+        }
+      }
+      m_averageExpected = m_expected.isEmpty() ? 0 : m_expectedLeft.sum() / m_expected.size();
+      m_expectedLeft.add(unknown * m_averageExpected);
+
+      m_lastChange = System.nanoTime();
+      m_executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "JupiterResultFormatter progress");
+        thread.setDaemon(true);
+        return thread;
+      });
+      m_executor.scheduleAtFixedRate(this::print, m_progressInterval, m_progressInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Called when a dynamic test is added to the plan.
+     */
+    void registered() {
+      m_total.incrementAndGet();
+      m_expectedLeft.add(m_averageExpected);
+    }
+
+    void finished(String uniqueId, boolean failed) {
+      m_done.increment();
+      if (failed) {
+        m_failed.increment();
+      }
+      if (m_averageExpected > 0) {
+        Long expected = m_expected.remove(uniqueId);
+        long nanos = expected != null ? expected : m_averageExpected;
+        m_expectedDone.add(nanos);
+        m_expectedLeft.add(-nanos);
+      }
+    }
+
+    synchronized void print() {
+      long now = System.nanoTime();
+      long done = m_done.sum();
+      long stalled = 0;
+      if (done != m_lastDone) {
+        m_lastDone = done;
+        m_lastChange = now;
+      } else if (done < m_total.get()) {
+        stalled = now - m_lastChange;
+      }
+      printConsole(formatProgress(done, m_total.get(), m_failed.sum(), now - m_planStarted,
+          m_expectedDone.sum(), Math.max(m_expectedLeft.sum(), 0), stalled));
+    }
+
+    void stop() {
+      m_executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Identifies a stack trace by its frames (including those of its causes and suppressed exceptions), ignoring
+   * messages.
+   */
+  static final class TraceKey {
+    private final List<Object> m_frames = new ArrayList<>();
+    private final int m_hashCode;
+
+    TraceKey(Throwable error) {
+      addFrames(error, Collections.newSetFromMap(new IdentityHashMap<>()));
+      int hashCode = 1;
+      for (Object frame : m_frames) {
+        hashCode = 31 * hashCode + (frame instanceof StackTraceElement[] ?
+            Arrays.hashCode((StackTraceElement[])frame) : frame.hashCode());
+      }
+      m_hashCode = hashCode;
+    }
+
+    private void addFrames(Throwable error, Set<Throwable> seen) {
+      if (error == null || !seen.add(error)) {
+        return;
+      }
+      m_frames.add(error.getClass());
+      m_frames.add(error.getStackTrace());
+      for (Throwable suppressed : error.getSuppressed()) {
+        addFrames(suppressed, seen);
+      }
+      addFrames(error.getCause(), seen);
+    }
+
+    @Override
+    public int hashCode() {
+      return m_hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TraceKey)) {
+        return false;
+      }
+      TraceKey other = (TraceKey)o;
+      if (m_hashCode != other.m_hashCode || m_frames.size() != other.m_frames.size()) {
+        return false;
+      }
+      for (int x = 0; x < m_frames.size(); x += 1) {
+        Object frame = m_frames.get(x);
+        Object otherFrame = other.m_frames.get(x);
+        if (frame instanceof StackTraceElement[] ?
+            !(otherFrame instanceof StackTraceElement[]) ||
+                !Arrays.equals((StackTraceElement[])frame, (StackTraceElement[])otherFrame) :
+            !frame.equals(otherFrame)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+
+  private static final class FailureTrace {
+    final int id;
+    /** Unique ID of the first test that failed with this trace. */
+    final String firstId;
+    final String firstTest;
+    final String type;
+    final LongAdder count = new LongAdder();
+
+    FailureTrace(int id, String firstId, String firstTest, Throwable error) {
+      this.id = id;
+      this.firstId = firstId;
+      this.firstTest = firstTest;
+      this.type = error.getClass().getSimpleName();
+    }
+  }
+
+
+  private static final class IndexUpdate {
+    final String className;
+    final Status status;
+    final long nanos;
+    final long timestamp = System.currentTimeMillis();
+
+    IndexUpdate(String className, Status status, long nanos) {
+      this.className = className;
+      this.status = status;
+      this.nanos = nanos;
+    }
+  }
+
+
+  /**
+   * Collects text until it is flushed, then appends it to a file (in UTF-8) while holding a lock on the file, so that
+   * other JVMs appending to the same file never split it up.  Only flush after whole lines.
+   */
+  private static final class LockedAppendWriter extends Writer {
+    private final File m_file;
+    private final StringBuilder m_buffer = new StringBuilder();
+
+    LockedAppendWriter(File file) {
+      m_file = file;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      m_buffer.append(chars, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (m_buffer.length() == 0) {
+        return;
+      }
+      try {
+        ForkStats.appendLocked(m_file, m_buffer.toString());
+      } catch (UncheckedIOException ex) {
+        throw ex.getCause();
+      } finally {
+        m_buffer.setLength(0);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+
+  private static final class Timing {
+    final String name;
+    final long nanos;
+
+    Timing(String name, long nanos) {
+      this.name = name;
+      this.nanos = nanos;
+    }
+  }
 }
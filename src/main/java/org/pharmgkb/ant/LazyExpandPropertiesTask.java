@@ -0,0 +1,39 @@
+package org.pharmgkb.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+import org.apache.tools.ant.Task;
+
+
+/**
+ * This task makes the project expand nested properties (e.g. {@code ${scheme}://${server.${name}}/${path}}) when they
+ * are read, instead of having to run {@link ExpandPropertiesTask} after properties are loaded.  Properties that are
+ * never read (such as most of {@code env.*}) are never expanded.
+ * <p>
+ * This should be called once, before properties are used.  Calling it again in the same project has no effect.  Since
+ * Ant gives new projects (e.g. those created by {@code ant} or {@code subant}) their own property helper, it needs to
+ * be called in those projects as well.
+ *
+ * @author Mark Woon
+ */
+public class LazyExpandPropertiesTask extends Task {
+  private static final String sf_evaluatorReference = LazyExpandPropertiesTask.class.getName() + ".evaluator";
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    Project project = getProject();
+    PropertyHelper helper = PropertyHelper.getPropertyHelper(project);
+    synchronized (helper) {
+      if (project.getReference(sf_evaluatorReference) != null) {
+        return;
+      }
+      LazyPropertyEvaluator evaluator = new LazyPropertyEvaluator();
+      helper.add(evaluator);
+      project.addReference(sf_evaluatorReference, evaluator);
+    }
+    log("Expanding properties on demand", Project.MSG_VERBOSE);
+  }
+}
@@ -0,0 +1,170 @@
+package org.pharmgkb.ant;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.PropertyHelper;
+
+
+/**
+ * A {@link PropertyHelper} delegate that expands nested property references (e.g.
+ * {@code ${scheme}://${server.${name}}/${path}}) when a property is read, instead of expanding every property up front
+ * like {@link ExpandPropertiesTask} does.  Properties that are never read are never expanded.
+ * <p>
+ * Expanded values are cached.  Each cached value remembers the raw (unexpanded) value of every property that went into
+ * it, and is only used if none of them have changed, so properties that get set or overridden later are picked up.
+ * <p>
+ * This is thread-safe.  Install it with {@link LazyExpandPropertiesTask}.
+ *
+ * @author Mark Woon
+ */
+final class LazyPropertyEvaluator implements PropertyHelper.PropertyEvaluator {
+  private final Map<String, Expansion> m_cache = new ConcurrentHashMap<>();
+  private final ThreadLocal<State> m_state = ThreadLocal.withInitial(State::new);
+
+
+  @Override
+  public Object evaluate(String property, PropertyHelper propertyHelper) {
+    State state = m_state.get();
+    if (state.rawLookups.contains(property)) {
+      // we're trying to get the raw value, let the default lookup handle it
+      return null;
+    }
+    Object raw = getRawValue(property, propertyHelper, state);
+    if (!(raw instanceof String) || ((String)raw).indexOf('}') == -1 || property.startsWith("env.BASH_FUNC_")) {
+      return raw;
+    }
+    return expand(property, (String)raw, propertyHelper, state).value;
+  }
+
+
+  /**
+   * Gets the value of a property without expanding it.  This goes back through {@code propertyHelper} (so that other
+   * delegates still get a say), with a flag set so that this evaluator stays out of the way.
+   */
+  private static Object getRawValue(String key, PropertyHelper propertyHelper, State state) {
+    state.rawLookups.add(key);
+    try {
+      return propertyHelper.getProperty(key);
+    } finally {
+      state.rawLookups.remove(key);
+    }
+  }
+
+
+  /**
+   * Gets the expanded value of {@code key}, from the cache if it's still valid.
+   */
+  private Expansion expand(String key, String raw, PropertyHelper propertyHelper, State state) {
+
+    Expansion cached = m_cache.get(key);
+    if (cached != null && cached.isValid(propertyHelper, state)) {
+      return cached;
+    }
+    PropertyTemplate template = PropertyTemplate.parse(key, raw);
+    if (template.isLiteral()) {
+      return new Expansion(template.getLiteral(), new String[] { key }, new Object[] { raw });
+    }
+
+    if (!state.path.add(key)) {
+      throw new BuildException("Recursive keys: " + PropertyExpander.formatPath(state.path, key));
+    }
+    try {
+      List<String> keys = new ArrayList<>();
+      List<Object> raws = new ArrayList<>();
+      keys.add(key);
+      raws.add(raw);
+      Set<String> seen = new HashSet<>(keys);
+      String value = resolve(key, template, propertyHelper, state, keys, raws, seen);
+      Expansion expansion = new Expansion(value, keys.toArray(new String[0]), raws.toArray());
+      m_cache.put(key, expansion);
+      return expansion;
+    } finally {
+      state.path.remove(key);
+    }
+  }
+
+  /**
+   * Expands {@code template}, adding the raw values of everything it used to {@code keys} and {@code raws}.
+   */
+  private String resolve(String key, PropertyTemplate template, PropertyHelper propertyHelper, State state,
+      List<String> keys, List<Object> raws, Set<String> seen) {
+
+    String literal = template.getLiteral();
+    if (literal != null) {
+      return literal;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Object part : template.getParts()) {
+      if (part instanceof PropertyTemplate.Reference) {
+        String subKey = resolve(key, ((PropertyTemplate.Reference)part).getName(), propertyHelper, state, keys, raws,
+            seen);
+        Object subRaw = getRawValue(subKey, propertyHelper, state);
+        if (subRaw == null) {
+          throw new BuildException("Cannot find value for '" + subKey + "' in key '" + key + "'");
+        }
+        if (subRaw instanceof String) {
+          Expansion sub = expand(subKey, (String)subRaw, propertyHelper, state);
+          builder.append(sub.value);
+          for (int x = 0; x < sub.keys.length; x += 1) {
+            if (seen.add(sub.keys[x])) {
+              keys.add(sub.keys[x]);
+              raws.add(sub.raws[x]);
+            }
+          }
+        } else {
+          builder.append(subRaw);
+          if (seen.add(subKey)) {
+            keys.add(subKey);
+            raws.add(subRaw);
+          }
+        }
+      } else {
+        builder.append((String)part);
+      }
+    }
+    return builder.toString();
+  }
+
+
+  /**
+   * Per-thread lookup state.
+   */
+  private static final class State {
+    /** Keys whose raw value is being looked up. */
+    final Set<String> rawLookups = new HashSet<>();
+    /** Keys currently being expanded, in order, used to detect recursion. */
+    final Set<String> path = new LinkedHashSet<>();
+  }
+
+
+  /**
+   * An expanded value, along with the raw values of every property that went into it.
+   */
+  private static final class Expansion {
+    final String value;
+    final String[] keys;
+    final Object[] raws;
+
+    Expansion(String value, String[] keys, Object[] raws) {
+      this.value = value;
+      this.keys = keys;
+      this.raws = raws;
+    }
+
+    boolean isValid(PropertyHelper propertyHelper, State state) {
+      for (int x = 0; x < keys.length; x += 1) {
+        Object raw = getRawValue(keys[x], propertyHelper, state);
+        if (raw != raws[x] && (raw == null || !raw.equals(raws[x]))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -3,8 +3,6 @@
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.taskdefs.Property;
 
-import static org.pharmgkb.ant.MinimumJavaVersionTask.convertVersionString;
-
 
 /**
  * This task checks that the Java version used to build the project meets a specified minimum.
@@ -25,10 +23,16 @@ public void execute() throws BuildException {
       throw new BuildException("Missing version parameter");
     }
 
-    String curVersionString = System.getProperty("java.version");
-    if (convertVersionString(curVersionString) > convertVersionString(m_version)) {
-      throw new BuildException("Build requires maximum Java version of " + m_version + " but running on " +
-          curVersionString);
+    JavaVersion required;
+    JavaVersion current;
+    try {
+      required = JavaVersion.parse(m_version);
+      current = JavaVersion.current();
+    } catch (IllegalArgumentException ex) {
+      throw new BuildException(ex.getMessage(), ex);
+    }
+    if (current.compareToPrefix(required) > 0) {
+      throw new BuildException("Build requires maximum Java version of " + m_version + " but running on " + current);
     }
   }
 }
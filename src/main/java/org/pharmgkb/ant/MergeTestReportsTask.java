@@ -0,0 +1,136 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+
+/**
+ * This task combines the reports written by {@link JupiterResultFormatter} for each shard or fork (see
+ * {@code testReportShard} and {@code testReportForkStats}) into a single report.
+ * <p>
+ * Each {@code index-<shard>.txt} and {@code index-<shard>.jsonl} (or {@code index-<fork>.*}, when forks write their own
+ * reports) is appended to {@code index.txt} and {@code index.jsonl} respectively (in name order), and each
+ * {@code test-index-<shard>.tsv} is merged into {@code test-index.tsv}.  The per-shard files are deleted once they've been merged.
+ * <p>
+ * Per-fork stats (see {@code testReportForkStats} and {@link ForkStats}) are read in parallel and combined into
+ * {@code summary.txt}, which lists the counts for every test class followed by totals across all forks.  The summary
+ * is written to a temp file and then moved into place, and the per-fork stats are deleted once they've been merged.
+ *
+ * @author Mark Woon
+ */
+public class MergeTestReportsTask extends Task {
+  private File m_reportDir;
+
+
+  /**
+   * Sets the test report directory that {@link JupiterResultFormatter} writes to.
+   */
+  public void setReportDir(File reportDir) {
+    m_reportDir = reportDir;
+  }
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    if (m_reportDir == null) {
+      throw new BuildException("Missing reportDir parameter");
+    }
+    if (!m_reportDir.isDirectory()) {
+      throw new BuildException(m_reportDir + " is not a directory");
+    }
+
+    try {
+      append("index-", ".txt", new File(m_reportDir, "index.txt"));
+      append("index-", ".jsonl", new File(m_reportDir, "index.jsonl"));
+
+      File[] shardIndexes = listFiles(m_reportDir, TestIndex.sf_shardPrefix, TestIndex.sf_shardSuffix);
+      if (shardIndexes.length > 0) {
+        TestIndex.update(m_reportDir, null, index -> {
+          for (File file : shardIndexes) {
+            index.read(file);
+          }
+        });
+        for (File file : shardIndexes) {
+          Files.delete(file.toPath());
+        }
+      }
+
+      File[] forkStats = listFiles(new File(m_reportDir, ForkStats.sf_dirName), "", ForkStats.sf_suffix);
+      if (forkStats.length > 0) {
+        ForkStats stats = Arrays.stream(forkStats)
+            .parallel()
+            .map(ForkStats::read)
+            .reduce(new ForkStats(), (a, b) -> {
+              ForkStats merged = new ForkStats();
+              merged.add(a);
+              merged.add(b);
+              return merged;
+            });
+        writeSummary(stats, forkStats.length);
+        for (File file : forkStats) {
+          Files.delete(file.toPath());
+        }
+      }
+    } catch (IOException | UncheckedIOException ex) {
+      throw new BuildException("Error merging test reports in " + m_reportDir, ex);
+    }
+  }
+
+
+  private static File[] listFiles(File dir, String prefix, String suffix) {
+    File[] files = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(suffix) &&
+        name.length() > prefix.length() + suffix.length());
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(files, Comparator.comparing(File::getName));
+    return files;
+  }
+
+  private void append(String prefix, String suffix, File target) throws IOException {
+    for (File file : listFiles(m_reportDir, prefix, suffix)) {
+      log("Merging " + file, Project.MSG_VERBOSE);
+      ForkStats.appendLocked(target, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+      Files.delete(file.toPath());
+    }
+  }
+
+
+  private void writeSummary(ForkStats stats, int numForks) throws IOException {
+    File file = new File(m_reportDir, "summary.txt");
+    File tmpFile = File.createTempFile("summary", ".tmp", m_reportDir);
+    try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, long[]> entry : stats.getClasses().entrySet()) {
+        writer.write(entry.getKey());
+        writer.write("\n  ");
+        writer.write(formatCounts(entry.getValue()));
+        writer.write("\n");
+      }
+      writer.write("\nTotal (" + stats.getClasses().size() + " classes in " + numForks + " forks)\n  ");
+      writer.write(formatCounts(stats.getTotals()));
+      writer.write("\n");
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log("Wrote summary of " + numForks + " forks to " + file);
+  }
+
+  private static String formatCounts(long[] counts) {
+    long total = counts[ForkStats.sf_succeeded] + counts[ForkStats.sf_failed] + counts[ForkStats.sf_aborted] +
+        counts[ForkStats.sf_skipped];
+    return String.format("Tests run: %d, Failures: %d, Aborted: %d, Skipped: %d, Time elapsed: %.3fs", total,
+        counts[ForkStats.sf_failed], counts[ForkStats.sf_aborted], counts[ForkStats.sf_skipped],
+        counts[ForkStats.sf_nanos] / 1e9);
+  }
+}
@@ -23,14 +23,25 @@ public void execute() throws BuildException {
       throw new BuildException("Missing version parameter");
     }
 
-    String curVersionString = System.getProperty("java.version");
-    if (convertVersionString(curVersionString) < convertVersionString(m_version)) {
-      throw new BuildException("Build requires minimum Java version of " + m_version + " but running on " +
-          curVersionString);
+    JavaVersion required;
+    JavaVersion current;
+    try {
+      required = JavaVersion.parse(m_version);
+      current = JavaVersion.current();
+    } catch (IllegalArgumentException ex) {
+      throw new BuildException(ex.getMessage(), ex);
+    }
+    if (current.compareToPrefix(required) < 0) {
+      throw new BuildException("Build requires minimum Java version of " + m_version + " but running on " + current);
     }
   }
 
 
+  /**
+   * @deprecated this can't tell {@code 1.10} from {@code 1.1} and can't parse versions like {@code 21-ea} or
+   * {@code 17.0.2+8}; use {@link JavaVersion} instead
+   */
+  @Deprecated
   public static int convertVersionString(String version) {
     int idx = version.indexOf(".");
     if (idx != -1) {
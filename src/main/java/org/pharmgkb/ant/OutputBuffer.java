@@ -0,0 +1,207 @@
+package org.pharmgkb.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Collects raw output (e.g. what a test wrote to {@link System#out}).
+ * <p>
+ * Output is kept in fixed-size chunks that are borrowed from (and returned to) a shared pool, so capturing output for
+ * lots of tests doesn't keep allocating new buffers.  Once there's more than {@code spillThreshold} bytes, everything
+ * is moved to a file instead, so large output doesn't grow the heap.  The file is written and read with plain channel
+ * I/O rather than memory-mapped, so nothing keeps it open (and locked, on Windows) once this buffer is closed.
+ * <p>
+ * The spill file is deleted when this buffer is closed, unless it is {@link #keep() kept}.
+ *
+ * @author Mark Woon
+ */
+final class OutputBuffer implements Closeable {
+  private static final int sf_chunkSize = 8192;
+  private static final int sf_maxPooledChunks = 1024;
+  private static final Queue<byte[]> sf_pool = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger sf_poolSize = new AtomicInteger();
+
+  private final long m_spillThreshold;
+  private final File m_spillDir;
+  private final List<byte[]> m_chunks = new ArrayList<>();
+  private long m_length;
+  private File m_spillFile;
+  private FileChannel m_channel;
+  private boolean m_keep;
+  private boolean m_closed;
+
+
+  /**
+   * Constructor.
+   *
+   * @param spillThreshold number of bytes to keep in memory before spilling to disk
+   * @param spillDir directory to create spill file in
+   */
+  OutputBuffer(long spillThreshold, File spillDir) {
+    m_spillThreshold = spillThreshold;
+    m_spillDir = spillDir;
+  }
+
+
+  private static byte[] borrowChunk() {
+    byte[] chunk = sf_pool.poll();
+    if (chunk == null) {
+      return new byte[sf_chunkSize];
+    }
+    sf_poolSize.decrementAndGet();
+    return chunk;
+  }
+
+  private static void returnChunk(byte[] chunk) {
+    if (sf_poolSize.incrementAndGet() <= sf_maxPooledChunks) {
+      sf_pool.offer(chunk);
+    } else {
+      sf_poolSize.decrementAndGet();
+    }
+  }
+
+
+  /**
+   * Adds output.  Output added after this buffer has been closed is dropped.
+   */
+  synchronized void write(byte[] data, int offset, int length) {
+    if (m_closed || length == 0) {
+      return;
+    }
+    try {
+      if (m_channel == null && m_length + length > m_spillThreshold) {
+        spill();
+      }
+      if (m_channel != null) {
+        writeToFile(ByteBuffer.wrap(data, offset, length));
+      } else {
+        int written = 0;
+        while (written < length) {
+          int used = (int)(m_length % sf_chunkSize);
+          if (used == 0) {
+            m_chunks.add(borrowChunk());
+          }
+          int count = Math.min(length - written, sf_chunkSize - used);
+          System.arraycopy(data, offset + written, m_chunks.get(m_chunks.size() - 1), used, count);
+          written += count;
+          m_length += count;
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing to " + m_spillFile, ex);
+    }
+  }
+
+  /**
+   * Moves everything in memory to the spill file.
+   */
+  private void spill() throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    m_spillDir.mkdirs();
+    m_spillFile = File.createTempFile("output-", ".txt", m_spillDir);
+    m_channel = FileChannel.open(m_spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long length = m_length;
+    m_length = 0;
+    for (byte[] chunk : m_chunks) {
+      writeToFile(ByteBuffer.wrap(chunk, 0, (int)Math.min(sf_chunkSize, length - m_length)));
+      returnChunk(chunk);
+    }
+    m_chunks.clear();
+  }
+
+  private void writeToFile(ByteBuffer data) throws IOException {
+    while (data.hasRemaining()) {
+      m_length += m_channel.write(data, m_length);
+    }
+  }
+
+
+  /**
+   * Gets the number of bytes written.
+   */
+  synchronized long length() {
+    return m_length;
+  }
+
+  /**
+   * Gets the file output has been spilled to.
+   *
+   * @return the file or null if everything fit in memory
+   */
+  synchronized File getSpillFile() {
+    return m_spillFile;
+  }
+
+
+  /**
+   * Gets the bytes between {@code start} (inclusive) and {@code end} (exclusive).
+   */
+  synchronized byte[] read(long start, long end) {
+    if (start < 0 || end > m_length || start > end) {
+      throw new IndexOutOfBoundsException("Cannot read [" + start + ", " + end + ") from " + m_length + " bytes");
+    }
+    if (m_channel != null) {
+      ByteBuffer bytes = ByteBuffer.allocate((int)(end - start));
+      try {
+        while (bytes.hasRemaining()) {
+          if (m_channel.read(bytes, start + bytes.position()) < 0) {
+            throw new IOException("Unexpected end of file");
+          }
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Error reading " + m_spillFile, ex);
+      }
+      return bytes.array();
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int)(end - start));
+    long pos = start;
+    while (pos < end) {
+      int block = (int)(pos / sf_chunkSize);
+      int blockOffset = (int)(pos % sf_chunkSize);
+      int count = (int)Math.min(end - pos, sf_chunkSize - blockOffset);
+      out.write(m_chunks.get(block), blockOffset, count);
+      pos += count;
+    }
+    return out.toByteArray();
+  }
+
+
+  /**
+   * Keeps the spill file (if any) around after this buffer is closed.
+   */
+  synchronized void keep() {
+    m_keep = true;
+  }
+
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (m_closed) {
+      return;
+    }
+    m_closed = true;
+    for (byte[] chunk : m_chunks) {
+      returnChunk(chunk);
+    }
+    m_chunks.clear();
+    if (m_channel != null) {
+      m_channel.close();
+      if (!m_keep) {
+        Files.deleteIfExists(m_spillFile.toPath());
+      }
+    }
+  }
+}
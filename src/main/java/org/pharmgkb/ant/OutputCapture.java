@@ -0,0 +1,187 @@
+package org.pharmgkb.ant;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+
+/**
+ * Holds captured output (e.g. what a test suite wrote to {@link System#err}) in bounded memory.
+ * <p>
+ * Only the first and last {@code limit / 2} characters are kept in memory.  Once there's more output than that, all of
+ * it is spilled to a file (named after the output, so that the next run overwrites it instead of leaving another file
+ * behind), which is referred to when the output is written out.  Output that fits within the limit (or
+ * when there is no limit) is simply held on to as is.
+ *
+ * @author Mark Woon
+ */
+final class OutputCapture implements Closeable {
+  /** Output that didn't need to be bounded. */
+  private final String m_text;
+  private final int m_limit;
+  private final File m_dir;
+  private final String m_name;
+  private final char[] m_head;
+  private int m_headLength;
+  /** Ring buffer of the last characters. */
+  private final char[] m_tail;
+  private int m_tailStart;
+  private int m_tailLength;
+  private long m_length;
+  private File m_spillFile;
+  private Writer m_spillWriter;
+
+
+  /**
+   * Constructor.
+   *
+   * @param limit maximum number of characters to keep in memory
+   * @param dir directory to spill output to
+   * @param name name of the file to spill output to (without {@code .txt}), e.g. {@code <suite>-stderr}
+   */
+  OutputCapture(int limit, File dir, String name) {
+    m_text = null;
+    m_limit = limit;
+    m_dir = dir;
+    m_name = name;
+    m_head = new char[limit / 2];
+    m_tail = new char[limit - m_head.length];
+  }
+
+
+  private OutputCapture(String text) {
+    m_text = text;
+    m_limit = text.length();
+    m_dir = null;
+    m_name = null;
+    m_head = new char[0];
+    m_tail = new char[0];
+    m_length = text.length();
+  }
+
+
+  /**
+   * Captures {@code text}.
+   *
+   * @param limit maximum number of characters to keep in memory, or 0 for no limit
+   * @param dir directory to spill output to
+   * @param name name of the file to spill output to (without {@code .txt})
+   */
+  static OutputCapture of(String text, int limit, File dir, String name) {
+    if (limit <= 0 || text.length() <= limit) {
+      return new OutputCapture(text);
+    }
+    OutputCapture capture = new OutputCapture(limit, dir, name);
+    capture.append(text);
+    return capture;
+  }
+
+
+  /**
+   * Adds output.
+   */
+  void append(String text) {
+    if (m_text != null) {
+      throw new IllegalStateException("Cannot append to unbounded capture");
+    }
+    int length = text.length();
+    m_length += length;
+    try {
+      if (m_spillWriter == null && m_length > m_limit) {
+        startSpill();
+      }
+      if (m_spillWriter != null) {
+        m_spillWriter.write(text);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing to " + m_spillFile, ex);
+    }
+
+    int offset = 0;
+    if (m_headLength < m_head.length) {
+      int count = Math.min(length, m_head.length - m_headLength);
+      text.getChars(0, count, m_head, m_headLength);
+      m_headLength += count;
+      offset = count;
+    }
+    // only the last m_tail.length chars can survive
+    offset = Math.max(offset, length - m_tail.length);
+    for (int x = offset; x < length; x += 1) {
+      int idx = (m_tailStart + m_tailLength) % m_tail.length;
+      m_tail[idx] = text.charAt(x);
+      if (m_tailLength < m_tail.length) {
+        m_tailLength += 1;
+      } else {
+        m_tailStart = (m_tailStart + 1) % m_tail.length;
+      }
+    }
+  }
+
+  /**
+   * Writes everything captured so far to {@code <m_name>.txt} in {@link #m_dir} (replacing it if it already exists).  Nothing has been dropped yet at this point.
+   */
+  private void startSpill() throws IOException {
+    //noinspection ResultOfMethodCallIgnored
+    m_dir.mkdirs();
+    m_spillFile = new File(m_dir, m_name + ".txt");
+    m_spillWriter = Files.newBufferedWriter(m_spillFile.toPath(), StandardCharsets.UTF_8);
+    m_spillWriter.write(m_head, 0, m_headLength);
+    writeTail(m_spillWriter);
+  }
+
+  private void writeTail(Writer writer) throws IOException {
+    int firstPart = Math.min(m_tailLength, m_tail.length - m_tailStart);
+    writer.write(m_tail, m_tailStart, firstPart);
+    writer.write(m_tail, 0, m_tailLength - firstPart);
+  }
+
+
+  /**
+   * Gets the total number of characters captured.
+   */
+  long length() {
+    return m_length;
+  }
+
+  /**
+   * Gets the file all the output has been spilled to.
+   *
+   * @return the file or null if everything fit in memory
+   */
+  File getSpillFile() {
+    return m_spillFile;
+  }
+
+
+  /**
+   * Writes out the captured output.  If it didn't all fit in memory, the middle is replaced with a note pointing to the
+   * file with all of the output.
+   */
+  void writeTo(Writer writer) throws IOException {
+    if (m_text != null) {
+      writer.write(m_text);
+      return;
+    }
+    writer.write(m_head, 0, m_headLength);
+    if (m_spillFile != null) {
+      m_spillWriter.flush();
+      writer.write(System.lineSeparator());
+      writer.write("... " + (m_length - m_headLength - m_tailLength) + " characters omitted, full output in " +
+          m_spillFile.getAbsolutePath() + " ...");
+      writer.write(System.lineSeparator());
+    }
+    writeTail(writer);
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    if (m_spillWriter != null) {
+      m_spillWriter.close();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package org.pharmgkb.ant;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.tools.ant.BuildException;
+
+
+/**
+ * Expands nested property references (e.g. {@code ${scheme}://${server.${name}}/${path}}) against a single snapshot
+ * of property values.
+ * <p>
+ * Every value is parsed once and resolved values are memoized, so properties that are referenced many times (such as
+ * {@code server.www} in {@code ${server.${name}}}) are only resolved once.
+ * <p>
+ * Lookups are thread-safe, so independent properties can be expanded concurrently (see {@link PropertyGraph}).
+ *
+ * @author Mark Woon
+ */
+class PropertyExpander {
+  private final Map<String, ?> m_properties;
+  private final Map<String, PropertyTemplate> m_templates = new ConcurrentHashMap<>();
+  private final Map<String, String> m_resolved = new ConcurrentHashMap<>();
+  /** Keys that each expanded property directly referred to, with nested names resolved. */
+  private final Map<String, Set<String>> m_references = new ConcurrentHashMap<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param properties snapshot of the properties to expand against; this should not be modified while this expander
+   * is in use and must be safe for concurrent reads if this expander is used from multiple threads
+   */
+  PropertyExpander(Map<String, ?> properties) {
+    m_properties = properties;
+  }
+
+
+  /**
+   * Gets the fully expanded value of the property with the given key.
+   *
+   * @return the expanded value or null if there is no such property
+   * @throws BuildException if the value cannot be expanded
+   */
+  String getValue(String key) {
+    if (!m_properties.containsKey(key)) {
+      return null;
+    }
+    Set<String> path = new LinkedHashSet<>();
+    return lookup(null, key, path);
+  }
+
+  /**
+   * Expands {@code value}, which will be used as the value of the property {@code key}.
+   * <p>
+   * The current value of {@code key} (if any) is not considered part of this expansion, so {@code value} can refer to
+   * it.
+   *
+   * @throws BuildException if the value cannot be expanded
+   */
+  String resolve(String key, String value) {
+    return resolve(key, PropertyTemplate.parse(key, value), new LinkedHashSet<>(), null);
+  }
+
+  /**
+   * Gets the keys that the property with the given key directly referred to when it was expanded by this expander.
+   * Nested names are resolved, so {@code ${server.${name}}} refers to both {@code name} and (for example)
+   * {@code server.www}.
+   */
+  Set<String> getReferences(String key) {
+    return m_references.getOrDefault(key, Collections.emptySet());
+  }
+
+
+  /**
+   * Gets the parsed value of the property with the given key.
+   *
+   * @return the parsed value or null if there is no such property
+   * @throws BuildException if the value cannot be parsed
+   */
+  PropertyTemplate getTemplate(String key) {
+    PropertyTemplate template = m_templates.get(key);
+    if (template == null) {
+      Object value = m_properties.get(key);
+      if (value == null) {
+        return null;
+      }
+      template = PropertyTemplate.parse(key, value.toString());
+      m_templates.put(key, template);
+    }
+    return template;
+  }
+
+
+  /**
+   * Expands {@code template}.
+   *
+   * @param refs if not null, keys that are referenced get added to this
+   */
+  private String resolve(String key, PropertyTemplate template, Set<String> path, Set<String> refs) {
+    String literal = template.getLiteral();
+    if (literal != null) {
+      return literal;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Object part : template.getParts()) {
+      if (part instanceof PropertyTemplate.Reference) {
+        String subKey = resolve(key, ((PropertyTemplate.Reference)part).getName(), path, refs);
+        builder.append(lookup(key, subKey, path));
+        if (refs != null) {
+          refs.add(subKey);
+        }
+      } else {
+        builder.append((String)part);
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Gets the fully expanded value of {@code subKey}.
+   *
+   * @param key the key that refers to {@code subKey} (only used for error messages)
+   * @param path the keys currently being resolved, used to detect recursion
+   */
+  private String lookup(String key, String subKey, Set<String> path) {
+    String resolved = m_resolved.get(subKey);
+    if (resolved != null) {
+      return resolved;
+    }
+    PropertyTemplate template = getTemplate(subKey);
+    if (template == null) {
+      throw new BuildException("Cannot find value for '" + subKey + "' in key '" + key + "'");
+    }
+    if (!path.add(subKey)) {
+      throw new BuildException("Recursive keys: " + formatPath(path, subKey));
+    }
+    if (template.isLiteral()) {
+      resolved = template.getLiteral();
+    } else {
+      Set<String> refs = new HashSet<>();
+      resolved = resolve(subKey, template, path, refs);
+      m_references.put(subKey, refs);
+    }
+    path.remove(subKey);
+    m_resolved.put(subKey, resolved);
+    return resolved;
+  }
+
+
+  static String formatPath(Iterable<String> path, String repeated) {
+    StringBuilder builder = new StringBuilder();
+    boolean inCycle = false;
+    for (String key : path) {
+      if (key.equals(repeated)) {
+        inCycle = true;
+      }
+      if (inCycle) {
+        builder.append("[")
+            .append(key)
+            .append("] --> ");
+      }
+    }
+    return builder.append("[")
+        .append(repeated)
+        .append("]")
+        .toString();
+  }
+}
@@ -0,0 +1,149 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.tools.ant.BuildException;
+
+
+/**
+ * Reads property files, so that many files can be hashed and parsed in parallel.
+ * <p>
+ * Property files are small, so each is read into memory in one go.  They aren't memory-mapped: a mapping isn't released
+ * until it's garbage collected, and until then the file can't be changed or deleted on Windows.
+ * <p>
+ * Files are parsed the same way {@code <property file="...">} parses them (i.e. {@link Properties#load(InputStream)}),
+ * but entries are kept in file order.
+ *
+ * @author Mark Woon
+ */
+final class PropertyFileLoader {
+
+  private PropertyFileLoader() {
+  }
+
+
+  /**
+   * Reads the contents of {@code file}.
+   *
+   * @throws UncheckedIOException if {@code file} can't be read
+   */
+  static ByteBuffer read(File file) {
+    try {
+      return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error reading " + file, ex);
+    }
+  }
+
+  /**
+   * Gets the SHA-256 hash of {@code contents}.
+   */
+  static byte[] hash(ByteBuffer contents) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(contents.duplicate());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException ex) {
+      // every JVM is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+
+  /**
+   * Parses the contents of a property file.
+   *
+   * @param file the file that {@code contents} came from (only used for error messages)
+   * @return the entries, in file order (if a key is repeated, the last value wins, as with {@link Properties})
+   * @throws BuildException if the file cannot be parsed
+   */
+  static Map<String, String> parse(File file, ByteBuffer contents) {
+    Map<String, String> entries = new LinkedHashMap<>();
+    Properties properties = new Properties() {
+      @Override
+      public synchronized Object put(Object key, Object value) {
+        return entries.put((String)key, (String)value);
+      }
+    };
+    try {
+      properties.load(new ByteBufferInputStream(contents.duplicate()));
+    } catch (IOException | IllegalArgumentException ex) {
+      throw new BuildException("Error parsing " + file, ex);
+    }
+    return entries;
+  }
+
+  /**
+   * Reads and parses {@code files}.
+   *
+   * @param parallel true if files should be read in parallel
+   * @return the entries of each file, in the same order as {@code files}
+   * @throws BuildException if a file cannot be read or parsed
+   */
+  static List<Map<String, String>> load(List<File> files, boolean parallel) {
+    Stream<File> stream = parallel ? files.parallelStream() : files.stream();
+    try {
+      return stream.map(f -> parse(f, read(f)))
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException ex) {
+      throw new BuildException(ex.getMessage(), ex.getCause());
+    }
+  }
+
+  /**
+   * Merges the entries of multiple files.  The first file to define a key wins.
+   */
+  static Map<String, String> merge(List<Map<String, String>> files) {
+    Map<String, String> merged = new LinkedHashMap<>();
+    for (Map<String, String> entries : files) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        merged.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+    }
+    return merged;
+  }
+
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer m_buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      m_buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return m_buffer.hasRemaining() ? m_buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!m_buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, m_buffer.remaining());
+      m_buffer.get(bytes, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return m_buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileProvider;
+
+
+/**
+ * This task loads many property files and expands them in one step, instead of a {@code <property file="...">} per
+ * file followed by {@link ExpandPropertiesTask}.
+ * <p>
+ * Files are read and parsed in parallel, then merged: as with {@code <property>}, properties that are already set are
+ * not changed, and the first file to define a property wins.  Files are loaded in the order of the nested resource
+ * collections.  Within a fileset, files are loaded by name, so the results don't depend on the order in which the file
+ * system lists files; ordered collections (e.g. {@code <filelist>} or {@code <path>}) keep their own order.
+ * <p>
+ * The new properties are expanded in the same pass, following the same rules as {@link ExpandingPropertyTask} (so
+ * {@code ${server.${name}}} works), with large sets of independent properties expanded in parallel.  Set
+ * {@code parallel="false"} to do everything on the calling thread.
+ *
+ * @author Mark Woon
+ */
+public class PropertyFilesTask extends Task {
+  private final List<ResourceCollection> m_resources = new ArrayList<>();
+  private boolean m_parallel = true;
+
+
+  public void add(ResourceCollection resources) {
+    m_resources.add(resources);
+  }
+
+  public void setParallel(boolean parallel) {
+    m_parallel = parallel;
+  }
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    Project project = getProject();
+    List<File> files = getFiles(m_resources);
+    Map<String, String> raw = PropertyFileLoader.merge(PropertyFileLoader.load(files, m_parallel));
+
+    // work off a single snapshot of the project's properties, with the new properties added
+    Map<String, Object> props = new HashMap<>(project.getProperties());
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<String, String> entry : raw.entrySet()) {
+      if (!props.containsKey(entry.getKey())) {
+        keys.add(entry.getKey());
+        props.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    PropertyExpander expander = new PropertyExpander(props);
+    Map<String, String> values = ExpandPropertiesTask.expand(expander, new PropertyGraph(expander, keys), props,
+        m_parallel);
+    for (String key : keys) {
+      project.setNewProperty(key, values.get(key));
+    }
+    log("Loaded " + keys.size() + " properties from " + files.size() + " files", Project.MSG_VERBOSE);
+    PropertyTemplate.exportCacheStats(project);
+  }
+
+
+  /**
+   * Gets the files in {@code resources}, in the order of the collections.  Files in filesets, which aren't listed in
+   * any particular order, are sorted by name; other collections keep their order.
+   *
+   * @throws BuildException if a resource isn't a file
+   */
+  static List<File> getFiles(List<ResourceCollection> resources) {
+    List<File> files = new ArrayList<>();
+    for (ResourceCollection rc : resources) {
+      List<Resource> list = new ArrayList<>();
+      for (Resource resource : rc) {
+        list.add(resource);
+      }
+      if (rc instanceof FileSet) {
+        list.sort(Comparator.comparing(Resource::getName));
+      }
+      for (Resource resource : list) {
+        FileProvider provider = resource.as(FileProvider.class);
+        if (provider == null) {
+          throw new BuildException("Only files are supported: " + resource);
+        }
+        files.add(provider.getFile());
+      }
+    }
+    return files;
+  }
+}
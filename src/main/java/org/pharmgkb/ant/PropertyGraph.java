@@ -0,0 +1,147 @@
+package org.pharmgkb.ant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.tools.ant.BuildException;
+
+
+/**
+ * The graph of references between properties, used to expand properties in dependency order.
+ * <p>
+ * Properties are grouped into strata: a property's stratum is one higher than the highest stratum of the properties it
+ * refers to.  Properties in the same stratum do not depend on each other, so large strata are expanded in parallel on
+ * the common fork-join pool (see {@link ExpandPropertiesTask}).
+ * <p>
+ * Only references with a fixed name (e.g. {@code ${name}}) are known up front.  The target of a reference with a nested
+ * name (e.g. {@code ${server.${name}}}) is only known once the name is resolved, so it is expanded on demand by the
+ * {@link PropertyExpander} when its stratum is evaluated.
+ *
+ * @author Mark Woon
+ */
+final class PropertyGraph {
+  private final PropertyExpander m_expander;
+  private final Map<String, Set<String>> m_edges = new HashMap<>();
+  private final List<List<String>> m_strata = new ArrayList<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param keys the keys of the properties that need to be expanded
+   * @throws BuildException if a value cannot be parsed or there is a cycle
+   */
+  PropertyGraph(PropertyExpander expander, Collection<String> keys) {
+    m_expander = expander;
+
+    Map<String, Integer> strata = new HashMap<>();
+    for (String key : keys) {
+      if (!strata.containsKey(key)) {
+        visit(key, strata);
+      }
+    }
+
+    SortedMap<Integer, List<String>> byStratum = new TreeMap<>();
+    for (Map.Entry<String, Integer> entry : strata.entrySet()) {
+      byStratum.computeIfAbsent(entry.getValue(), k -> new ArrayList<>())
+          .add(entry.getKey());
+    }
+    for (List<String> stratum : byStratum.values()) {
+      Collections.sort(stratum);
+      m_strata.add(stratum);
+    }
+  }
+
+
+  /**
+   * Gets the strata, in the order they need to be expanded in.  Keys within each stratum are sorted.
+   */
+  List<List<String>> getStrata() {
+    return m_strata;
+  }
+
+
+  /**
+   * Walks the graph depth-first from {@code start}, assigning strata in post-order.
+   */
+  private void visit(String start, Map<String, Integer> strata) {
+
+    // keys on the current path, in order, used to detect and report cycles
+    Set<String> path = new LinkedHashSet<>();
+    Deque<String> keys = new ArrayDeque<>();
+    Deque<Iterator<String>> stack = new ArrayDeque<>();
+    path.add(start);
+    keys.push(start);
+    stack.push(edges(start).iterator());
+
+    while (!stack.isEmpty()) {
+      Iterator<String> it = stack.peek();
+      if (it.hasNext()) {
+        String ref = it.next();
+        if (strata.containsKey(ref)) {
+          continue;
+        }
+        if (path.contains(ref)) {
+          throw new BuildException("Recursive keys: " + PropertyExpander.formatPath(path, ref));
+        }
+        path.add(ref);
+        keys.push(ref);
+        stack.push(edges(ref).iterator());
+
+      } else {
+        stack.pop();
+        String key = keys.pop();
+        path.remove(key);
+        int stratum = 0;
+        for (String ref : edges(key)) {
+          stratum = Math.max(stratum, strata.get(ref) + 1);
+        }
+        strata.put(key, stratum);
+      }
+    }
+  }
+
+  /**
+   * Gets the properties that {@code key} refers to with a fixed name, ignoring references to unknown properties (those
+   * will be reported when the property is expanded).
+   */
+  private Set<String> edges(String key) {
+    Set<String> edges = m_edges.get(key);
+    if (edges == null) {
+      edges = new LinkedHashSet<>();
+      PropertyTemplate template = m_expander.getTemplate(key);
+      if (template != null) {
+        collectReferences(template, edges);
+      }
+      m_edges.put(key, edges);
+    }
+    return edges;
+  }
+
+  private void collectReferences(PropertyTemplate template, Set<String> edges) {
+    for (Object part : template.getParts()) {
+      if (part instanceof PropertyTemplate.Reference) {
+        PropertyTemplate name = ((PropertyTemplate.Reference)part).getName();
+        String ref = name.getLiteral();
+        if (ref != null) {
+          if (m_expander.getTemplate(ref) != null) {
+            edges.add(ref);
+          }
+        } else {
+          // target isn't known until the name has been resolved, but the name's references are
+          collectReferences(name, edges);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package org.pharmgkb.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The result of loading and expanding a set of property files, saved so that later builds can skip the work if nothing
+ * has changed (see {@link PropertySnapshotTask}).
+ * <p>
+ * A snapshot contains:
+ * <ul>
+ *   <li>the path, content hash and (unexpanded) entries of every property file, in load order</li>
+ *   <li>inputs: the value of every property that came from somewhere other than the property files (e.g.
+ *   {@code basedir} or {@code env.*}), or that a property file would have set but was already set, or null if it
+ *   wasn't set</li>
+ *   <li>results: the unexpanded and expanded value of every property that was set, along with the keys it referred
+ *   to</li>
+ * </ul>
+ * Snapshots are stored in a compact binary format and read in a single read.  They are written to a temp file and then
+ * moved into place, so readers never see a partially written snapshot.
+ *
+ * @author Mark Woon
+ */
+final class PropertySnapshot {
+  private static final int sf_magic = 0x50474b53;
+  private static final int sf_version = 1;
+
+  private final List<SourceFile> m_files;
+  private final Map<String, String> m_inputs;
+  private final Map<String, Result> m_results;
+
+
+  PropertySnapshot(List<SourceFile> files, Map<String, String> inputs, Map<String, Result> results) {
+    m_files = files;
+    m_inputs = inputs;
+    m_results = results;
+  }
+
+
+  List<SourceFile> getFiles() {
+    return m_files;
+  }
+
+  /**
+   * Gets the inputs, keyed by property name.  Values are null if the property wasn't set.
+   */
+  Map<String, String> getInputs() {
+    return m_inputs;
+  }
+
+  /**
+   * Gets the results, keyed by property name, in the order they should be set.
+   */
+  Map<String, Result> getResults() {
+    return m_results;
+  }
+
+
+  /**
+   * Reads a snapshot written by {@link #save(File)}.
+   *
+   * @return the snapshot, or null if {@code file} does not exist or is not a valid snapshot
+   */
+  static PropertySnapshot read(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error reading " + file, ex);
+    }
+    try {
+      if (buffer.getInt() != sf_magic || buffer.getInt() != sf_version) {
+        return null;
+      }
+      int numFiles = readLength(buffer);
+      List<SourceFile> files = new ArrayList<>(numFiles);
+      for (int x = 0; x < numFiles; x += 1) {
+        String path = readString(buffer);
+        byte[] hash = new byte[readLength(buffer)];
+        buffer.get(hash);
+        int numEntries = readLength(buffer);
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int y = 0; y < numEntries; y += 1) {
+          entries.put(readString(buffer), readString(buffer));
+        }
+        files.add(new SourceFile(path, hash, entries));
+      }
+      int numInputs = readLength(buffer);
+      Map<String, String> inputs = new LinkedHashMap<>();
+      for (int x = 0; x < numInputs; x += 1) {
+        inputs.put(readString(buffer), readString(buffer));
+      }
+      int numResults = readLength(buffer);
+      Map<String, Result> results = new LinkedHashMap<>();
+      for (int x = 0; x < numResults; x += 1) {
+        String key = readString(buffer);
+        String raw = readString(buffer);
+        String value = readString(buffer);
+        String[] refs = new String[readLength(buffer)];
+        for (int y = 0; y < refs.length; y += 1) {
+          refs[y] = readString(buffer);
+        }
+        results.put(key, new Result(raw, value, refs));
+      }
+      return new PropertySnapshot(files, inputs, results);
+    } catch (BufferUnderflowException | IllegalArgumentException ex) {
+      // truncated or corrupt
+      return null;
+    }
+  }
+
+  /**
+   * Reads a length or count.  Each byte or entry takes up at least one byte, so anything larger than what's left is
+   * corrupt (and would otherwise allocate an arbitrarily large array).
+   */
+  private static int readLength(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid length: " + length);
+    }
+    return length;
+  }
+
+  /**
+   * Strings are stored as their length in UTF-8 bytes followed by the bytes, or -1 for null.
+   */
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length: " + length);
+    }
+    String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+        StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return string;
+  }
+
+
+  /**
+   * Saves this snapshot to {@code file}.
+   */
+  void save(File file) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(sf_magic);
+      out.writeInt(sf_version);
+      out.writeInt(m_files.size());
+      for (SourceFile sourceFile : m_files) {
+        writeString(out, sourceFile.path);
+        out.writeInt(sourceFile.hash.length);
+        out.write(sourceFile.hash);
+        out.writeInt(sourceFile.entries.size());
+        for (Map.Entry<String, String> entry : sourceFile.entries.entrySet()) {
+          writeString(out, entry.getKey());
+          writeString(out, entry.getValue());
+        }
+      }
+      out.writeInt(m_inputs.size());
+      for (Map.Entry<String, String> entry : m_inputs.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+      out.writeInt(m_results.size());
+      for (Map.Entry<String, Result> entry : m_results.entrySet()) {
+        Result result = entry.getValue();
+        writeString(out, entry.getKey());
+        writeString(out, result.raw);
+        writeString(out, result.value);
+        out.writeInt(result.refs.length);
+        for (String ref : result.refs) {
+          writeString(out, ref);
+        }
+      }
+    } catch (IOException ex) {
+      // can't happen with a ByteArrayOutputStream
+      throw new UncheckedIOException(ex);
+    }
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    try {
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+      Files.write(tmpFile.toPath(), bytes.toByteArray());
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + file, ex);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+
+  /**
+   * A property file that went into a snapshot.
+   */
+  static final class SourceFile {
+    final String path;
+    final byte[] hash;
+    /** Unexpanded entries, in file order. */
+    final Map<String, String> entries;
+
+    SourceFile(String path, byte[] hash, Map<String, String> entries) {
+      this.path = path;
+      this.hash = hash;
+      this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    boolean matches(String otherPath, byte[] otherHash) {
+      return path.equals(otherPath) && Arrays.equals(hash, otherHash);
+    }
+  }
+
+
+  /**
+   * A property set from a snapshot.
+   */
+  static final class Result {
+    /** The value before expansion. */
+    final String raw;
+    /** The value after expansion. */
+    final String value;
+    /** Keys that the value directly referred to. */
+    final String[] refs;
+
+    Result(String raw, String value, String[] refs) {
+      this.raw = raw;
+      this.value = value;
+      this.refs = refs;
+    }
+  }
+}
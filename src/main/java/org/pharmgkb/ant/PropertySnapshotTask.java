@@ -0,0 +1,270 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.ResourceCollection;
+
+
+/**
+ * This task loads property files and expands them (like a {@code <property file="...">} per file followed by
+ * {@link ExpandPropertiesTask}), saving the results in a snapshot (see {@link PropertySnapshot}) so that later builds
+ * can skip the work.
+ * <p>
+ * The snapshot is used as-is if the property files' contents (by hash) haven't changed and none of the properties
+ * that went into it from elsewhere (e.g. {@code basedir}, or {@code env.*} variables that the property files refer to)
+ * have changed.  Otherwise, only the property files that changed are parsed again, and only the properties whose
+ * inputs changed (and the properties that refer to them) are expanded again.
+ * <p>
+ * Property files are specified with nested resource collections and are loaded in the same order as
+ * {@link PropertyFilesTask} loads them.  As with {@code <property>}, properties that are already set are not changed,
+ * and the first file to define a property wins.  Files are read and parsed in parallel (see
+ * {@link PropertyFileLoader}) unless {@code parallel} is set to false.
+ * <p>
+ * The snapshot is stored in the file given by the {@code file} attribute (defaults to
+ * {@code build/property-snapshot.bin} under the project's base directory).
+ *
+ * @author Mark Woon
+ */
+public class PropertySnapshotTask extends Task {
+  private File m_file;
+  private final List<ResourceCollection> m_resources = new ArrayList<>();
+  private boolean m_parallel = true;
+
+
+  public void setFile(File file) {
+    m_file = file;
+  }
+
+  public void add(ResourceCollection resources) {
+    m_resources.add(resources);
+  }
+
+  public void setParallel(boolean parallel) {
+    m_parallel = parallel;
+  }
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    Project project = getProject();
+    File snapshotFile = m_file != null ? m_file : new File(project.getBaseDir(), "build/property-snapshot.bin");
+
+    List<File> files = PropertyFilesTask.getFiles(m_resources);
+    List<ByteBuffer> contents;
+    List<byte[]> hashes;
+    try {
+      contents = stream(files).map(PropertyFileLoader::read).collect(Collectors.toList());
+      hashes = stream(contents).map(PropertyFileLoader::hash).collect(Collectors.toList());
+    } catch (UncheckedIOException ex) {
+      throw new BuildException(ex.getMessage(), ex.getCause());
+    }
+
+    PropertySnapshot previous;
+    try {
+      previous = PropertySnapshot.read(snapshotFile);
+    } catch (UncheckedIOException ex) {
+      log("Cannot read " + snapshotFile + ": " + ex.getMessage(), Project.MSG_WARN);
+      previous = null;
+    }
+    if (previous != null && isCurrent(previous, files, hashes)) {
+      apply(previous);
+      log("Loaded " + previous.getResults().size() + " properties from " + snapshotFile, Project.MSG_VERBOSE);
+      return;
+    }
+
+    PropertySnapshot snapshot = rebuild(previous, files, contents, hashes);
+    apply(snapshot);
+    try {
+      snapshot.save(snapshotFile);
+    } catch (UncheckedIOException ex) {
+      throw new BuildException("Error saving property snapshot", ex);
+    }
+  }
+
+
+  private <T> Stream<T> stream(List<T> list) {
+    return m_parallel ? list.parallelStream() : list.stream();
+  }
+
+
+  /**
+   * Checks if {@code snapshot} can be used as-is.
+   */
+  private boolean isCurrent(PropertySnapshot snapshot, List<File> files, List<byte[]> hashes) {
+
+    List<PropertySnapshot.SourceFile> sourceFiles = snapshot.getFiles();
+    if (sourceFiles.size() != files.size()) {
+      return false;
+    }
+    for (int x = 0; x < files.size(); x += 1) {
+      if (!sourceFiles.get(x).matches(files.get(x).getPath(), hashes.get(x))) {
+        return false;
+      }
+    }
+    Project project = getProject();
+    for (Map.Entry<String, String> entry : snapshot.getInputs().entrySet()) {
+      if (!Objects.equals(project.getProperty(entry.getKey()), entry.getValue())) {
+        return false;
+      }
+    }
+    for (Map.Entry<String, PropertySnapshot.Result> entry : snapshot.getResults().entrySet()) {
+      String value = project.getProperty(entry.getKey());
+      if (value != null && !value.equals(entry.getValue().value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Loads and expands the property files, reusing whatever is still valid from {@code previous}.
+   */
+  private PropertySnapshot rebuild(PropertySnapshot previous, List<File> files, List<ByteBuffer> contents,
+      List<byte[]> hashes) {
+
+    Project project = getProject();
+    List<Integer> changedFiles = new ArrayList<>();
+    List<Map<String, String>> fileEntries = new ArrayList<>(files.size());
+    for (int x = 0; x < files.size(); x += 1) {
+      String path = files.get(x).getPath();
+      Map<String, String> entries = null;
+      if (previous != null) {
+        for (PropertySnapshot.SourceFile sourceFile : previous.getFiles()) {
+          if (sourceFile.matches(path, hashes.get(x))) {
+            entries = sourceFile.entries;
+            break;
+          }
+        }
+      }
+      if (entries == null) {
+        changedFiles.add(x);
+      }
+      fileEntries.add(entries);
+    }
+    List<Map<String, String>> parsed = stream(changedFiles)
+        .map(x -> PropertyFileLoader.parse(files.get(x), contents.get(x)))
+        .collect(Collectors.toList());
+    for (int x = 0; x < changedFiles.size(); x += 1) {
+      fileEntries.set(changedFiles.get(x), parsed.get(x));
+    }
+    List<PropertySnapshot.SourceFile> sourceFiles = new ArrayList<>(files.size());
+    for (int x = 0; x < files.size(); x += 1) {
+      sourceFiles.add(new PropertySnapshot.SourceFile(files.get(x).getPath(), hashes.get(x), fileEntries.get(x)));
+    }
+    Map<String, String> raw = PropertyFileLoader.merge(fileEntries);
+    int numParsed = changedFiles.size();
+
+    // work off a single snapshot of the project's properties, with the new properties added
+    Map<String, Object> props = new HashMap<>(project.getProperties());
+    Map<String, String> inputs = new LinkedHashMap<>();
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<String, String> entry : raw.entrySet()) {
+      Object existing = props.get(entry.getKey());
+      if (existing != null) {
+        inputs.put(entry.getKey(), existing.toString());
+      } else {
+        keys.add(entry.getKey());
+        props.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Set<String> dirty = previous == null ? null : findDirty(previous, props);
+    PropertyExpander expander = new PropertyExpander(props);
+    Map<String, PropertySnapshot.Result> results = new LinkedHashMap<>();
+    int numExpanded = 0;
+    for (String key : keys) {
+      PropertySnapshot.Result result = previous == null ? null : previous.getResults().get(key);
+      if (result == null || dirty.contains(key)) {
+        String value;
+        try {
+          value = expander.getValue(key);
+        } catch (BuildException ex) {
+          throw new BuildException("Error evaluating " + key + "='" + raw.get(key) + "' (" + ex.getMessage() + ")",
+              ex);
+        }
+        result = new PropertySnapshot.Result(raw.get(key), value,
+            new TreeSet<>(expander.getReferences(key)).toArray(new String[0]));
+        numExpanded += 1;
+      }
+      results.put(key, result);
+    }
+    for (PropertySnapshot.Result result : results.values()) {
+      for (String ref : result.refs) {
+        if (!results.containsKey(ref) && !inputs.containsKey(ref)) {
+          inputs.put(ref, project.getProperty(ref));
+        }
+      }
+    }
+
+    log("Parsed " + numParsed + " of " + files.size() + " property files, expanded " + numExpanded + " of " +
+        keys.size() + " properties", Project.MSG_VERBOSE);
+    return new PropertySnapshot(sourceFiles, inputs, results);
+  }
+
+
+  /**
+   * Finds the results in {@code previous} that need to be expanded again: those whose inputs have changed, and
+   * everything that (directly or indirectly) refers to them.
+   *
+   * @param props the current value of every property, with new properties added (unexpanded)
+   */
+  private static Set<String> findDirty(PropertySnapshot previous, Map<String, Object> props) {
+
+    Set<String> changed = new HashSet<>();
+    for (Map.Entry<String, String> entry : previous.getInputs().entrySet()) {
+      Object value = props.get(entry.getKey());
+      if (!Objects.equals(value == null ? null : value.toString(), entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    Map<String, List<String>> dependents = new HashMap<>();
+    for (Map.Entry<String, PropertySnapshot.Result> entry : previous.getResults().entrySet()) {
+      if (!entry.getValue().raw.equals(props.get(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+      for (String ref : entry.getValue().refs) {
+        dependents.computeIfAbsent(ref, k -> new ArrayList<>())
+            .add(entry.getKey());
+      }
+    }
+
+    Set<String> dirty = new HashSet<>(changed);
+    Deque<String> queue = new ArrayDeque<>(changed);
+    while (!queue.isEmpty()) {
+      for (String dependent : dependents.getOrDefault(queue.pop(), Collections.emptyList())) {
+        if (dirty.add(dependent)) {
+          queue.push(dependent);
+        }
+      }
+    }
+    return dirty;
+  }
+
+
+  private void apply(PropertySnapshot snapshot) {
+    Project project = getProject();
+    for (Map.Entry<String, PropertySnapshot.Result> entry : snapshot.getResults().entrySet()) {
+      project.setNewProperty(entry.getKey(), entry.getValue().value);
+    }
+  }
+}
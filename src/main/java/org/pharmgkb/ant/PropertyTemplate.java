@@ -0,0 +1,258 @@
+package org.pharmgkb.ant;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+
+
+/**
+ * A property value that has been parsed into literal text and (possibly nested) property references.
+ * <p>
+ * For example, {@code ${scheme}://${server.${name}}} is parsed into a reference to {@code scheme}, the literal
+ * {@code ://} and a reference whose name is made up of the literal {@code server.} and a reference to {@code name}.
+ * <p>
+ * Parsed templates are immutable and are cached (per classloader) by value, so the same definitions being run over and
+ * over again via {@code antcall}, {@code subant} or imports only get parsed once.  The cache is bounded and evicts
+ * templates that haven't been used recently (see {@link Cache}).  Lookups are lock-free, so parallel expansion doesn't
+ * contend on it.  If the {@value #sf_statsProperty} property is set to true, the cache's hit/miss counts are published
+ * as properties by {@link #exportCacheStats(Project)}.
+ *
+ * @author Mark Woon
+ */
+final class PropertyTemplate {
+  static final String sf_hitsProperty = "pgkb.templateCache.hits";
+  static final String sf_missesProperty = "pgkb.templateCache.misses";
+  static final String sf_statsProperty = "pgkb.templateCache.stats";
+  /** Number of templates in each generation of the cache. */
+  private static final int sf_cacheSize = 32768;
+  private static final PropertyTemplate sf_empty = new PropertyTemplate(Collections.emptyList());
+  /** Cache of values to parsed templates. */
+  private static final Cache sf_cache = new Cache(sf_cacheSize);
+  private static final AtomicLong sf_hits = new AtomicLong();
+  private static final AtomicLong sf_misses = new AtomicLong();
+  /** Either {@link String} literals or {@link Reference}s. */
+  private final List<Object> m_parts;
+
+
+  private PropertyTemplate(List<Object> parts) {
+    m_parts = parts;
+  }
+
+
+  /**
+   * Parses {@code value}.
+   *
+   * @param key the name of the property being parsed (only used for error messages)
+   * @param value the value to parse
+   * @throws BuildException if there is a '}' without a matching '${'
+   */
+  static PropertyTemplate parse(String key, String value) {
+
+    // don't bother if it starts and ends with {}
+    // example: env.WT_PROFILE_ID, which is set by Windows Terminal
+    if (value.startsWith("{") && value.endsWith("}")) {
+      return literal(value);
+    }
+    if (value.indexOf('}') == -1) {
+      return literal(value);
+    }
+
+    PropertyTemplate template = sf_cache.get(value);
+    if (template != null) {
+      sf_hits.incrementAndGet();
+      return template;
+    }
+    sf_misses.incrementAndGet();
+    template = doParse(key, value);
+    sf_cache.put(value, template);
+    return template;
+  }
+
+
+  private static PropertyTemplate doParse(String key, String value) {
+
+    Deque<List<Object>> stack = new ArrayDeque<>();
+    List<Object> parts = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    int length = value.length();
+    for (int x = 0; x < length; x += 1) {
+      char c = value.charAt(x);
+      if (c == '$' && x + 1 < length && value.charAt(x + 1) == '{') {
+        addLiteral(parts, literal);
+        stack.push(parts);
+        parts = new ArrayList<>();
+        x += 1;
+      } else if (c == '}') {
+        if (stack.isEmpty()) {
+          throw new BuildException("Found '}' but cannot find matching '${' while trying to expand '" + key + "': '" +
+              value + "'");
+        }
+        addLiteral(parts, literal);
+        Reference ref = new Reference(new PropertyTemplate(parts));
+        parts = stack.pop();
+        parts.add(ref);
+      } else {
+        literal.append(c);
+      }
+    }
+    addLiteral(parts, literal);
+    // anything left open is not a reference, treat it as text
+    while (!stack.isEmpty()) {
+      List<Object> unclosed = parts;
+      parts = stack.pop();
+      parts.add("${");
+      parts.addAll(unclosed);
+    }
+    return new PropertyTemplate(parts);
+  }
+
+  private static void addLiteral(List<Object> parts, StringBuilder literal) {
+    if (literal.length() > 0) {
+      parts.add(literal.toString());
+      literal.setLength(0);
+    }
+  }
+
+  private static PropertyTemplate literal(String value) {
+    if (value.isEmpty()) {
+      return sf_empty;
+    }
+    return new PropertyTemplate(Collections.singletonList(value));
+  }
+
+
+  /**
+   * Empties the template cache, e.g. to measure parsing in benchmarks.
+   */
+  static void clearCache() {
+    sf_cache.clear();
+  }
+
+
+  /**
+   * Publishes the number of cache hits and misses as properties ({@value #sf_hitsProperty} and
+   * {@value #sf_missesProperty}) in {@code project}, if the {@value #sf_statsProperty} property is set to true.
+   */
+  static void exportCacheStats(Project project) {
+    if (!Project.toBoolean(project.getProperty(sf_statsProperty))) {
+      return;
+    }
+    PropertyHelper helper = PropertyHelper.getPropertyHelper(project);
+    helper.setProperty(sf_hitsProperty, Long.toString(sf_hits.get()), false);
+    helper.setProperty(sf_missesProperty, Long.toString(sf_misses.get()), false);
+  }
+
+
+  /**
+   * Gets the parts of this template, each of which is either a {@link String} literal or a {@link Reference}.
+   */
+  List<Object> getParts() {
+    return m_parts;
+  }
+
+  /**
+   * Gets the text of this template if it contains no references.
+   *
+   * @return the text or null if this template contains references
+   */
+  String getLiteral() {
+    if (m_parts.size() == 1 && m_parts.get(0) instanceof String) {
+      return (String)m_parts.get(0);
+    }
+    if (!isLiteral()) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (Object part : m_parts) {
+      builder.append((String)part);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Checks if this template contains no references.
+   */
+  boolean isLiteral() {
+    for (Object part : m_parts) {
+      if (part instanceof Reference) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * A lock-free cache that approximates LRU with two generations.  New entries go into the current generation, and
+   * when it is full it becomes the previous generation (and the old previous generation is dropped).  Entries found in
+   * the previous generation are moved back into the current one, so templates that are still being used stay cached
+   * and stale ones are evicted.  At most twice {@code size} entries are kept.
+   */
+  static final class Cache {
+    private final int m_size;
+    private volatile Map<String, PropertyTemplate> m_current = new ConcurrentHashMap<>();
+    private volatile Map<String, PropertyTemplate> m_previous = new ConcurrentHashMap<>();
+
+    Cache(int size) {
+      m_size = size;
+    }
+
+    /**
+     * Gets the template for {@code value}, or null if it isn't cached.
+     */
+    PropertyTemplate get(String value) {
+      PropertyTemplate template = m_current.get(value);
+      if (template == null) {
+        template = m_previous.get(value);
+        if (template != null) {
+          put(value, template);
+        }
+      }
+      return template;
+    }
+
+    void put(String value, PropertyTemplate template) {
+      Map<String, PropertyTemplate> current = m_current;
+      if (current.size() >= m_size) {
+        // only taken when a generation fills up
+        synchronized (this) {
+          if (m_current == current) {
+            m_previous = current;
+            m_current = new ConcurrentHashMap<>();
+          }
+          current = m_current;
+        }
+      }
+      current.put(value, template);
+    }
+
+    synchronized void clear() {
+      m_current = new ConcurrentHashMap<>();
+      m_previous = new ConcurrentHashMap<>();
+    }
+  }
+
+
+  /**
+   * A reference to another property.  The name of the referenced property may itself contain references.
+   */
+  static final class Reference {
+    private final PropertyTemplate m_name;
+
+    private Reference(PropertyTemplate name) {
+      m_name = name;
+    }
+
+    PropertyTemplate getName() {
+      return m_name;
+    }
+  }
+}
@@ -1,70 +1,103 @@
 package org.pharmgkb.ant;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.text.NumberFormat;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitResultFormatter;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper;
 import org.apache.tools.ant.util.FileUtils;
-import org.apache.tools.ant.util.StringUtils;
 
 
 /**
  * This is a JUnit result formatter that is designed to print test results on the command-line as cleanly as possible.
  * <p>
+ * If the system property {@code testReportAsync} is set to true, per-test results are written out in batches on a
+ * background thread instead of being flushed after every test.  Everything is written out by the end of each suite.
+ * <p>
+ * If the system property {@code testReportHistory} is set to true, the durations of successful tests are saved in the
+ * directory specified by the system property {@code testReportDir} (defaults to {@code build}), and tests that are
+ * slower than usual are listed at the end of each suite (see {@link DurationHistory}).  How much slower than usual a
+ * test has to be is controlled by the system property {@code testReportRegressionThreshold} (defaults to 1.5).
+ * <p>
+ * If the system property {@code testReportMaxOutput} is set, only the first and last {@code testReportMaxOutput / 2}
+ * characters of a suite's standard output/error are kept in memory and printed.  Anything longer is written in full to
+ * {@code <suite>-stdout.txt} or {@code <suite>-stderr.txt} in {@code testReportDir} instead (replacing the file from
+ * the last run), and the report points to it (see {@link OutputCapture}).
+ * <p>
+ * Per-test state is released as soon as each test ends and per-suite state when the suite ends, so memory use doesn't
+ * grow over long-running suites.  Test callbacks may come from multiple threads (e.g. parallel runners).
+ * <p>
  * Based on http://shaman-sir.wikidot.com/one-liner-output-formatter.
  *
  * @author Mark Woon
  */
 public class ResultFormatter implements JUnitResultFormatter {
-  private final String sf_tabString = "    ";
-  // (\w+\.)+(\w+)\((\w+).(?:\w+):(\d+)\)
-  private final Pattern sf_traceLinePattern = Pattern.compile("(\\w+\\.)+(\\w+)\\((\\w+).(?:\\w+):(\\d+)\\)");
+  private static final String sf_tabString = "    ";
 
   /** Where to write the log to. */
   private OutputStream m_outputStream;
   /** Used for writing the results. */
   private PrintWriter m_outputWriter;
+  /** Writes per-test results on a background thread, if {@code testReportAsync} is enabled. */
+  private volatile AsyncLineWriter m_asyncWriter;
+  /** Guards writes to {@link #m_outputWriter}, so that lines from concurrent tests don't get mixed up. */
+  private final Object m_outputLock = new Object();
 
-  /** Holds the formatted results. */
+  /** Holds the formatted results.  Must synchronize on this formatter for access. */
   private StringWriter m_errors = new StringWriter();
-  /** Used for writing formatted results. */
+  /** Used for writing formatted results.  Must synchronize on this formatter for access. */
   private PrintWriter m_errorWriter = new PrintWriter(m_errors);
 
+  /** Name of the current test suite. */
+  private volatile String m_suiteName = "suite";
   /** Holds the output a test suite has written to {@link System#out}. */
-  private String m_systemOutput = null;
+  private OutputCapture m_systemOutput = null;
   /** Holds the output a test suite has written to {@link System#err}. */
-  private String m_systemError = null;
+  private OutputCapture m_systemError = null;
 
-  /** Tests that failed. */
-  private Set<Test> m_failedTests = new HashSet<>();
+  /** Tests in the current suite that have failed but not ended yet. */
+  private final Set<Test> m_failedTests = ConcurrentHashMap.newKeySet();
 
-  /** Maps tests to start times. */
-  private Map<Test, Long> m_testStarts = new HashMap<>();
+  /** Maps tests that are running to their start times (from {@link System#nanoTime()}). */
+  private final Map<Test, Long> m_testStarts = new ConcurrentHashMap<>();
   /** Formatter for timings. */
   private NumberFormat m_numberFormat = NumberFormat.getInstance();
 
   private boolean m_showSystemOut = false;
   private boolean m_showSystemErr = true;
   private boolean m_showCausesLines = true;
+  private boolean m_async = Boolean.getBoolean("testReportAsync");
+  private boolean m_history = Boolean.getBoolean("testReportHistory");
+  private double m_regressionThreshold = Double.parseDouble(System.getProperty("testReportRegressionThreshold", "1.5"));
+  private int m_maxOutput = Integer.getInteger("testReportMaxOutput", 0);
+  private File m_reportDir = new File(System.getProperty("testReportDir", "build"));
+  /** Durations (in nanoseconds) of tests that succeeded in the current suite, for {@link DurationHistory}. */
+  private final Map<String, Long> m_durations = new ConcurrentHashMap<>();
 
 
 
-  private void resetErrorWriter() {
+  /**
+   * Gets the formatted errors so far and starts over.
+   */
+  private synchronized String takeErrors() {
+    m_errorWriter.flush();
+    String errors = m_errors.toString();
     m_errors = new StringWriter();
     m_errorWriter = new PrintWriter(m_errors);
+    return errors;
   }
 
 
@@ -77,6 +110,20 @@ private void resetErrorWriter() {
   public void setOutput(OutputStream out) {
     m_outputStream = out;
     m_outputWriter = new PrintWriter(out);
+    if (m_async) {
+      closeAsyncWriter();
+      m_asyncWriter = new AsyncLineWriter("ResultFormatter output", m_outputWriter);
+    }
+  }
+
+  /**
+   * Waits for everything queued on the async writer (if any) to be written.
+   */
+  private void closeAsyncWriter() {
+    if (m_asyncWriter != null) {
+      m_asyncWriter.close();
+      m_asyncWriter = null;
+    }
   }
 
 
@@ -85,7 +132,7 @@ public void setOutput(OutputStream out) {
    */
   @Override
   public void setSystemOutput(String out) {
-    m_systemOutput = out;
+    m_systemOutput = capture(m_showSystemOut, out, "stdout");
   }
 
   /**
@@ -93,7 +140,17 @@ public void setSystemOutput(String out) {
    */
   @Override
   public void setSystemError(String err) {
-    m_systemError = err;
+    m_systemError = capture(m_showSystemErr, err, "stderr");
+  }
+
+  /**
+   * Captures output that will be shown, so that only what we need is held on to until the end of the suite.
+   */
+  private OutputCapture capture(boolean show, String output, String stream) {
+    if (!show || output == null || output.length() == 0) {
+      return null;
+    }
+    return OutputCapture.of(output, m_maxOutput, m_reportDir, m_suiteName + "-" + stream);
   }
 
 
@@ -105,13 +162,22 @@ public void setSystemError(String err) {
   @Override
   public void startTestSuite(JUnitTest suite) {
 
+    m_suiteName = suite.getName();
     if (m_outputWriter == null) {
       return;
     }
-    m_outputWriter.println();
-    m_outputWriter.println("----------------------------------------------------------");
-    m_outputWriter.println("Test suite: " + suite.getName());
-    m_outputWriter.flush();
+    if (m_asyncWriter != null) {
+      m_asyncWriter.println("");
+      m_asyncWriter.println("----------------------------------------------------------");
+      m_asyncWriter.println("Test suite: " + suite.getName());
+      return;
+    }
+    synchronized (m_outputLock) {
+      m_outputWriter.println();
+      m_outputWriter.println("----------------------------------------------------------");
+      m_outputWriter.println("Test suite: " + suite.getName());
+      m_outputWriter.flush();
+    }
   }
 
   /**
@@ -121,55 +187,86 @@ public void startTestSuite(JUnitTest suite) {
    */
   @Override
   public void endTestSuite(JUnitTest suite) {
-    StringBuilder sb = new StringBuilder("Tests run: ");
-    sb.append(suite.runCount());
-    sb.append(", Failures: ");
-    sb.append(suite.failureCount());
-    sb.append(", Errors: ");
-    sb.append(suite.errorCount());
-    sb.append(", Time elapsed: ");
-    sb.append(m_numberFormat.format(suite.getRunTime() / 1000.0));
-    sb.append(" sec");
-    sb.append(System.lineSeparator());
-
-    // append the err and output streams to the log
-    if (m_showSystemOut) {
-      if (m_systemOutput != null && m_systemOutput.length() > 0) {
-        sb.append("------------- Standard Output ---------------")
-            .append(System.lineSeparator())
-            .append(m_systemOutput)
-            .append("------------- ---------------- ---------------")
-            .append(System.lineSeparator());
-      }
-    }
-    if (m_showSystemErr) {
-      if (m_systemError != null && m_systemError.length() > 0) {
-        sb.append("------------- Standard Error -----------------")
-            .append(System.lineSeparator())
-            .append(m_systemError)
-            .append("------------- ---------------- ---------------")
-            .append(System.lineSeparator());
-      }
+    List<String> regressions = Collections.emptyList();
+    if (m_history) {
+      DurationHistory history = DurationHistory.get(m_reportDir);
+      regressions = history.findRegressions(m_durations, m_regressionThreshold);
+      history.append(m_durations);
     }
+    m_durations.clear();
+    // tests that never ended (e.g. the suite was aborted) shouldn't be kept around
+    m_testStarts.clear();
+    m_failedTests.clear();
+    String errors = takeErrors();
 
-    if (m_outputWriter != null) {
-      try {
-        m_outputWriter.write(sb.toString());
-        // print errors, if any
-        m_errorWriter.flush();
-        String errors = m_errors.toString();
-        if (errors.length() > 0) {
-          m_outputWriter.println();
-          m_outputWriter.println(errors);
+    try {
+      if (m_outputWriter != null) {
+        synchronized (m_outputLock) {
+          closeAsyncWriter();
+          m_outputWriter.print("Tests run: ");
+          m_outputWriter.print(suite.runCount());
+          m_outputWriter.print(", Failures: ");
+          m_outputWriter.print(suite.failureCount());
+          m_outputWriter.print(", Errors: ");
+          m_outputWriter.print(suite.errorCount());
+          m_outputWriter.print(", Time elapsed: ");
+          m_outputWriter.print(m_numberFormat.format(suite.getRunTime() / 1000.0));
+          m_outputWriter.println(" sec");
+
+          // append the err and output streams to the log
+          writeOutput("------------- Standard Output ---------------", m_systemOutput);
+          writeOutput("------------- Standard Error -----------------", m_systemError);
+
+          if (!regressions.isEmpty()) {
+            m_outputWriter.println("Slower than usual:");
+            for (String regression : regressions) {
+              m_outputWriter.print(sf_tabString);
+              m_outputWriter.println(regression);
+            }
+          }
+
+          // print errors, if any
+          if (errors.length() > 0) {
+            m_outputWriter.println();
+            m_outputWriter.println(errors);
+          }
+          m_outputWriter.flush();
         }
-        m_outputWriter.flush();
+      }
 
-        resetErrorWriter();
+    } finally {
+      closeQuietly(m_systemOutput);
+      closeQuietly(m_systemError);
+      m_systemOutput = null;
+      m_systemError = null;
+      if (m_outputWriter != null && m_outputStream != System.out && m_outputStream != System.err) {
+        FileUtils.close(m_outputStream);
+      }
+    }
+  }
 
-      } finally {
-        if (m_outputStream != System.out && m_outputStream != System.err) {
-          FileUtils.close(m_outputStream);
-        }
+  /**
+   * Copies captured output to the log.
+   */
+  private void writeOutput(String header, OutputCapture output) {
+    if (output == null) {
+      return;
+    }
+    m_outputWriter.println(header);
+    try {
+      output.writeTo(m_outputWriter);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing output", ex);
+    }
+    m_outputWriter.println("------------- ---------------- ---------------");
+  }
+
+  private static void closeQuietly(OutputCapture output) {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException ex) {
+        // ignore
       }
     }
   }
@@ -179,7 +276,7 @@ public void endTestSuite(JUnitTest suite) {
    */
   @Override
   public void startTest(Test test) {
-    m_testStarts.put(test, System.currentTimeMillis());
+    m_testStarts.put(test, System.nanoTime());
   }
 
   /**
@@ -187,20 +284,26 @@ public void startTest(Test test) {
    */
   @Override
   public void endTest(Test test) {
+    long now = System.nanoTime();
+    Long startTestTimestamp = m_testStarts.remove(test);
     // Fix for bug #5637 - if a junit.extensions.TestSetup is used and throws an exception during setUp then startTest
     // would never have been called
-    if (!m_testStarts.containsKey(test)) {
-      startTest(test);
+    long nanos = startTestTimestamp == null ? 0 : now - startTestTimestamp;
+    boolean failed = m_failedTests.remove(test);
+    if (m_history && !failed) {
+      m_durations.put(getTestCaseClassName(test) + "." + getTestName(test), nanos);
     }
 
-    boolean failed = m_failedTests.contains(test);
-    Long startTestTimestamp = m_testStarts.get(test);
-
-    m_outputWriter.print("Ran [");
-    m_outputWriter.print(((System.currentTimeMillis() - startTestTimestamp) / 1000.0) + "] ");
-    m_outputWriter.print(getTestName(test) + " ... " + (failed ? "FAILED" : "OK"));
-    m_outputWriter.println();
-    m_outputWriter.flush();
+    String line = "Ran [" + (nanos / 1_000_000 / 1000.0) + "] " + getTestName(test) + " ... " +
+        (failed ? "FAILED" : "OK");
+    AsyncLineWriter asyncWriter = m_asyncWriter;
+    // the async writer may get closed by endTestSuite at any time
+    if (asyncWriter == null || !asyncWriter.println(line)) {
+      synchronized (m_outputLock) {
+        m_outputWriter.println(line);
+        m_outputWriter.flush();
+      }
+    }
   }
 
 
@@ -273,7 +376,8 @@ private synchronized void formatError(String type, Test test, Throwable error) {
 
     if (m_showCausesLines) {
       // resultWriter.append(System.lineSeparator());
-      m_errorWriter.println(filterErrorTrace(test, error));
+      filterErrorTrace(m_errorWriter, getTestCaseClassName(test), error);
+      m_errorWriter.println();
     }
 
     m_errorWriter.println();
@@ -283,35 +387,117 @@ private synchronized void formatError(String type, Test test, Throwable error) {
         resultWriter.println(); */
   }
 
-  private String filterErrorTrace(Test test, Throwable error) {
-    String trace = StringUtils.getStackTrace(error);
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
-    StringReader sr = new StringReader(trace);
-    BufferedReader br = new BufferedReader(sr);
+  /**
+   * Writes the stack trace lines of {@code error} (including causes and suppressed exceptions) that mention
+   * {@code className}, with frames in the form {@code (File) method: line}.
+   * <p>
+   * This works directly off of {@link StackTraceElement}s, so there's no need to print the whole stack trace to a
+   * {@code String} and then parse it again, but the output is the same as filtering the printed stack trace line by
+   * line.  In particular, frames that a cause or suppressed exception shares with the trace enclosing it are left out,
+   * just like {@link Throwable#printStackTrace()} collapses them into "... n more".
+   */
+  static void filterErrorTrace(PrintWriter writer, String className, Throwable error) {
+    filterErrorTrace(writer, className, error, new StackTraceElement[0], "", "",
+        Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
 
-    String line;
-    try {
-      while ((line = br.readLine()) != null) {
-        if (line.contains(getTestCaseClassName(test))) {
-          Matcher matcher = sf_traceLinePattern.matcher(line);
-          // pw.println(matcher + ": " + matcher.find());
-          if (matcher.find()) {
-            pw.print(sf_tabString);
-            pw.print("(" + matcher.group(3) + ") ");
-            pw.print(matcher.group(2) + ": ");
-            pw.println(matcher.group(4));
-          } else {
-            pw.println(line);
-          }
+  /**
+   * Walks {@code error} the same way {@code Throwable.printEnclosedStackTrace} does.
+   */
+  private static void filterErrorTrace(PrintWriter writer, String className, Throwable error,
+      StackTraceElement[] enclosingTrace, String caption, String prefix, Set<Throwable> seen) {
+
+    if (!seen.add(error)) {
+      String line = prefix + caption + "[CIRCULAR REFERENCE: " + error + "]";
+      if (line.contains(className)) {
+        writer.println(line);
+      }
+      return;
+    }
+    String header = error.toString();
+    if (header.contains(className)) {
+      writer.println(prefix + caption + header);
+    }
 
+    StackTraceElement[] trace = error.getStackTrace();
+    // skip frames in common with the enclosing trace
+    int m = trace.length - 1;
+    int n = enclosingTrace.length - 1;
+    while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+      m -= 1;
+      n -= 1;
+    }
+    for (int x = 0; x <= m; x += 1) {
+      StackTraceElement element = trace[x];
+      if (element.getClassName().contains(className)) {
+        String file = getFileBaseName(element);
+        if (file != null) {
+          writer.print(sf_tabString);
+          writer.print('(');
+          writer.print(file);
+          writer.print(") ");
+          writer.print(element.getMethodName());
+          writer.print(": ");
+          writer.println(element.getLineNumber());
+        } else {
+          writer.print(prefix);
+          writer.print("\tat ");
+          writer.println(element);
         }
       }
-    } catch (Exception e) {
-      // return the trace unfiltered
-      return trace;
     }
 
-    return sw.toString();
+    for (Throwable suppressed : error.getSuppressed()) {
+      filterErrorTrace(writer, className, suppressed, trace, "Suppressed: ", prefix + "\t", seen);
+    }
+    Throwable cause = error.getCause();
+    if (cause != null) {
+      filterErrorTrace(writer, className, cause, trace, "Caused by: ", prefix, seen);
+    }
+  }
+
+  /**
+   * Gets the part of the file name that goes in {@code (File) method: line}, or null if the frame should be written
+   * out as is (the frame has no line number, or its method or file name isn't made up of word characters).
+   */
+  private static String getFileBaseName(StackTraceElement element) {
+    String file = element.getFileName();
+    String method = element.getMethodName();
+    String cls = element.getClassName();
+    if (file == null || element.getLineNumber() < 0 || !isWord(method, 0, method.length()) ||
+        cls.isEmpty() || !isWord(cls, cls.length() - 1, cls.length())) {
+      return null;
+    }
+    // file name must be word characters, any character, then more word characters
+    int length = file.length();
+    int idx = 0;
+    while (idx < length && isWord(file, idx, idx + 1)) {
+      idx += 1;
+    }
+    if (idx == length) {
+      // no separator, the last character but one is the separator
+      return length >= 3 ? file.substring(0, length - 2) : null;
+    }
+    if (idx == 0 || idx + 1 >= length || !isWord(file, idx + 1, length)) {
+      return null;
+    }
+    return file.substring(0, idx);
+  }
+
+  /**
+   * Checks if the characters of {@code text} between {@code start} and {@code end} are all word characters
+   * ({@code [a-zA-Z_0-9]}).
+   */
+  private static boolean isWord(String text, int start, int end) {
+    if (start >= end) {
+      return false;
+    }
+    for (int x = start; x < end; x += 1) {
+      char c = text.charAt(x);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+        return false;
+      }
+    }
+    return true;
   }
 }
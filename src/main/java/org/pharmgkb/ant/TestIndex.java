@@ -0,0 +1,212 @@
+package org.pharmgkb.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+
+/**
+ * Index of the last known outcome of every test, keyed by test unique ID.
+ * <p>
+ * The index is stored in {@code test-index.tsv} in the test report directory, one line per test:
+ * {@code <unique id> TAB <class name> TAB <status> TAB <duration in nanoseconds> TAB <time of last failure>}.  The
+ * time of the last failure is in milliseconds since the epoch, or 0 if the test hasn't failed.  It's always rewritten
+ * in full (via a temp file that is then moved into place), so readers never see a partially written index.  Use
+ * {@link #update(File, String, Consumer)} to make changes, so that concurrent writers (e.g. forked JVMs) don't lose
+ * each other's changes.
+ * <p>
+ * When tests are sharded, each shard keeps its own index ({@code test-index-<shard>.tsv}) until they are merged by
+ * {@link MergeTestReportsTask}.
+ *
+ * @author Mark Woon
+ */
+final class TestIndex {
+  static final String sf_filename = "test-index.tsv";
+  static final String sf_shardPrefix = "test-index-";
+  static final String sf_shardSuffix = ".tsv";
+  static final String sf_failed = "FAILED";
+
+  private final File m_file;
+  private final Map<String, Entry> m_entries = new TreeMap<>();
+
+
+  private TestIndex(File file) {
+    m_file = file;
+  }
+
+
+  /**
+   * Loads the index stored in {@code dir}.  Returns an empty index if there isn't one.
+   */
+  static TestIndex load(File dir) {
+    return load(dir, null);
+  }
+
+  /**
+   * Loads the index for a shard stored in {@code dir}.  Returns an empty index if there isn't one.
+   *
+   * @param shard the shard's name, or null if not sharded
+   */
+  static TestIndex load(File dir, String shard) {
+    TestIndex index = new TestIndex(new File(dir, shard == null ? sf_filename :
+        sf_shardPrefix + shard + sf_shardSuffix));
+    index.read(index.m_file);
+    return index;
+  }
+
+  /**
+   * Loads, modifies and saves an index while holding an exclusive lock (on a {@code .lock} file next to it), so that
+   * other JVMs can't update it at the same time.
+   *
+   * @param shard the shard's name, or null if not sharded
+   */
+  static void update(File dir, String shard, Consumer<TestIndex> updater) {
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    File lockFile = new File(dir, (shard == null ? sf_filename : sf_shardPrefix + shard + sf_shardSuffix) + ".lock");
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      FileLock lock = channel.lock();
+      try {
+        TestIndex index = load(dir, shard);
+        updater.accept(index);
+        index.save();
+      } finally {
+        lock.release();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error locking " + lockFile, ex);
+    }
+  }
+
+  /**
+   * Reads entries from {@code file}.  Entries that are already in this index are replaced.
+   */
+  void read(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length != 5) {
+          continue;
+        }
+        try {
+          m_entries.put(fields[0], new Entry(fields[1], fields[2], Long.parseLong(fields[3]),
+              Long.parseLong(fields[4])));
+        } catch (NumberFormatException ex) {
+          // ignore corrupt lines
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error reading " + file, ex);
+    }
+  }
+
+
+  /**
+   * Test unique IDs and names can contain anything.  Make sure they stay in one field.
+   */
+  private static String toField(String text) {
+    return text.replace('\t', ' ')
+        .replace('\r', ' ')
+        .replace('\n', ' ');
+  }
+
+  /**
+   * Records the latest outcome of a test.
+   *
+   * @param nanos how long the test took, -1 if unknown
+   * @param timestamp when the test ran (in milliseconds since the epoch)
+   */
+  void put(String uniqueId, String className, String status, long nanos, long timestamp) {
+    String key = toField(uniqueId);
+    Entry previous = m_entries.get(key);
+    long lastFailure = sf_failed.equals(status) ? timestamp : (previous == null ? 0 : previous.lastFailure);
+    if (nanos < 0) {
+      nanos = previous == null ? 0 : previous.nanos;
+    }
+    m_entries.put(key, new Entry(toField(className), status, nanos, lastFailure));
+  }
+
+  /**
+   * Gets all entries, keyed by test unique ID.
+   */
+  Map<String, Entry> getEntries() {
+    return Collections.unmodifiableMap(m_entries);
+  }
+
+
+  /**
+   * Gets the total duration (in nanoseconds) of each class's tests.
+   */
+  Map<String, Long> getClassDurations() {
+    Map<String, Long> durations = new TreeMap<>();
+    for (Entry entry : m_entries.values()) {
+      durations.merge(entry.className, entry.nanos, Long::sum);
+    }
+    return durations;
+  }
+
+
+  /**
+   * Saves the index.
+   */
+  void save() {
+    //noinspection ResultOfMethodCallIgnored
+    m_file.getAbsoluteFile().getParentFile().mkdirs();
+    try {
+      File tmpFile = File.createTempFile(m_file.getName(), ".tmp", m_file.getAbsoluteFile().getParentFile());
+      try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Entry> entry : m_entries.entrySet()) {
+          Entry e = entry.getValue();
+          writer.write(entry.getKey());
+          writer.write('\t');
+          writer.write(e.className);
+          writer.write('\t');
+          writer.write(e.status);
+          writer.write('\t');
+          writer.write(Long.toString(e.nanos));
+          writer.write('\t');
+          writer.write(Long.toString(e.lastFailure));
+          writer.write('\n');
+        }
+      }
+      Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + m_file, ex);
+    }
+  }
+
+
+  static final class Entry {
+    final String className;
+    /** {@link org.junit.platform.engine.TestExecutionResult.Status} name. */
+    final String status;
+    final long nanos;
+    /** When the test last failed (in milliseconds since the epoch), 0 if never. */
+    final long lastFailure;
+
+    Entry(String className, String status, long nanos, long lastFailure) {
+      this.className = className;
+      this.status = status;
+      this.nanos = nanos;
+      this.lastFailure = lastFailure;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Test counts and durations from a test run, written out in the
+ * <a href="https://openmetrics.io">OpenMetrics</a> text format so that they can be picked up by a Prometheus
+ * node-exporter textfile collector.
+ * <p>
+ * This exports:
+ * <ul>
+ *   <li>{@code junit_class_tests}: the number of tests in each class, by status</li>
+ *   <li>{@code junit_class_elapsed_seconds}: how long each class took</li>
+ *   <li>{@code junit_test_duration_seconds}: a histogram of how long each test took</li>
+ *   <li>{@code junit_class_duration_seconds}: a histogram of how long each class took</li>
+ * </ul>
+ * Histograms use fixed buckets (see {@link #sf_buckets}).  If a shard or fork is given, every sample gets a
+ * {@code shard} or {@code fork} label, so that files from different shards/forks don't have the same series (which the
+ * textfile collector rejects).  The file is written to a temp file and then moved into place, so collectors never see a partially written
+ * file.
+ *
+ * @author Mark Woon
+ */
+final class TestMetrics {
+  /** Upper bounds of the histogram buckets, in nanoseconds.  The last ({@code +Inf}) bucket is implicit. */
+  static final long[] sf_buckets = {
+      TimeUnit.MILLISECONDS.toNanos(1),
+      TimeUnit.MILLISECONDS.toNanos(5),
+      TimeUnit.MILLISECONDS.toNanos(10),
+      TimeUnit.MILLISECONDS.toNanos(50),
+      TimeUnit.MILLISECONDS.toNanos(100),
+      TimeUnit.MILLISECONDS.toNanos(500),
+      TimeUnit.SECONDS.toNanos(1),
+      TimeUnit.SECONDS.toNanos(5),
+      TimeUnit.SECONDS.toNanos(10),
+      TimeUnit.SECONDS.toNanos(30),
+      TimeUnit.MINUTES.toNanos(1),
+      TimeUnit.MINUTES.toNanos(5),
+      TimeUnit.MINUTES.toNanos(15),
+  };
+  private static final String[] sf_statuses = new String[4];
+  static {
+    sf_statuses[ForkStats.sf_succeeded] = "succeeded";
+    sf_statuses[ForkStats.sf_failed] = "failed";
+    sf_statuses[ForkStats.sf_aborted] = "aborted";
+    sf_statuses[ForkStats.sf_skipped] = "skipped";
+  }
+
+  private final String m_shard;
+  private final String m_fork;
+  private final ForkStats m_classes = new ForkStats();
+  private final Histogram m_testDurations = new Histogram();
+  private final Histogram m_classDurations = new Histogram();
+
+
+  /**
+   * @param shard the name of the shard, may be null
+   * @param fork the ID of the fork, may be null
+   */
+  TestMetrics(String shard, String fork) {
+    m_shard = shard;
+    m_fork = fork;
+  }
+
+
+  /**
+   * Adds counts for a class.
+   *
+   * @param counts counts in the form used by {@link ForkStats#add(String, long[])}
+   */
+  void addClass(String className, long[] counts) {
+    m_classes.add(className, counts);
+    m_classDurations.add(counts[ForkStats.sf_nanos]);
+  }
+
+  /**
+   * Adds the duration (in nanoseconds) of a test.
+   */
+  void addTest(long nanos) {
+    m_testDurations.add(nanos);
+  }
+
+
+  /**
+   * Formats all metrics in the OpenMetrics text format.
+   */
+  String format() {
+    String labelPrefix = (m_shard == null ? "" : "shard=\"" + escape(m_shard) + "\",") +
+        (m_fork == null ? "" : "fork=\"" + escape(m_fork) + "\",");
+    StringBuilder builder = new StringBuilder();
+
+    Map<String, long[]> classes = m_classes.getClasses();
+    builder.append("# TYPE junit_class_tests gauge\n")
+        .append("# HELP junit_class_tests Number of tests in a class, by status.\n");
+    for (Map.Entry<String, long[]> entry : classes.entrySet()) {
+      String className = escape(entry.getKey());
+      for (int x = 0; x < sf_statuses.length; x += 1) {
+        builder.append("junit_class_tests{")
+            .append(labelPrefix)
+            .append("class=\"")
+            .append(className)
+            .append("\",status=\"")
+            .append(sf_statuses[x])
+            .append("\"} ")
+            .append(entry.getValue()[x])
+            .append('\n');
+      }
+    }
+    builder.append("# TYPE junit_class_elapsed_seconds gauge\n")
+        .append("# UNIT junit_class_elapsed_seconds seconds\n")
+        .append("# HELP junit_class_elapsed_seconds How long a test class took.\n");
+    for (Map.Entry<String, long[]> entry : classes.entrySet()) {
+      builder.append("junit_class_elapsed_seconds{")
+          .append(labelPrefix)
+          .append("class=\"")
+          .append(escape(entry.getKey()))
+          .append("\"} ")
+          .append(seconds(entry.getValue()[ForkStats.sf_nanos]))
+          .append('\n');
+    }
+    m_testDurations.format(builder, "junit_test_duration_seconds", "How long tests took.", labelPrefix);
+    m_classDurations.format(builder, "junit_class_duration_seconds", "How long test classes took.", labelPrefix);
+    builder.append("# EOF\n");
+    return builder.toString();
+  }
+
+  /**
+   * Saves all metrics to {@code file}, replacing it.
+   */
+  void save(File file) {
+    File dir = file.getAbsoluteFile().getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    try {
+      // textfile collectors only read *.prom, so this won't get picked up while it's being written
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+      Files.write(tmpFile.toPath(), format().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error writing " + file, ex);
+    }
+  }
+
+
+  private static String seconds(long nanos) {
+    return Double.toString(nanos / 1e9);
+  }
+
+  /**
+   * Escapes a label value.
+   */
+  private static String escape(String value) {
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int x = 0; x < value.length(); x += 1) {
+      char c = value.charAt(x);
+      if (c == '\\' || c == '"') {
+        builder.append('\\').append(c);
+      } else if (c == '\n') {
+        builder.append("\\n");
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+
+  /**
+   * A histogram of durations, using {@link #sf_buckets}.
+   */
+  private static final class Histogram {
+    /** Counts per bucket (not cumulative), with the {@code +Inf} bucket last. */
+    private final long[] m_counts = new long[sf_buckets.length + 1];
+    private long m_sum;
+
+    synchronized void add(long nanos) {
+      int idx = Arrays.binarySearch(sf_buckets, nanos);
+      // bounds are inclusive, and binarySearch returns (-(insertion point) - 1) if not found
+      m_counts[idx >= 0 ? idx : -idx - 1] += 1;
+      m_sum += nanos;
+    }
+
+    synchronized void format(StringBuilder builder, String name, String help, String labelPrefix) {
+      builder.append("# TYPE ").append(name).append(" histogram\n")
+          .append("# UNIT ").append(name).append(" seconds\n")
+          .append("# HELP ").append(name).append(' ').append(help).append('\n');
+      long count = 0;
+      for (int x = 0; x < m_counts.length; x += 1) {
+        count += m_counts[x];
+        builder.append(name)
+            .append("_bucket{")
+            .append(labelPrefix)
+            .append("le=\"")
+            .append(x < sf_buckets.length ? seconds(sf_buckets[x]) : "+Inf")
+            .append("\"} ")
+            .append(count)
+            .append('\n');
+      }
+      String labels = labelPrefix.isEmpty() ? "" : "{" + labelPrefix.substring(0, labelPrefix.length() - 1) + "}";
+      builder.append(name).append("_count").append(labels).append(' ').append(count).append('\n')
+          .append(name).append("_sum").append(labels).append(' ').append(seconds(m_sum)).append('\n');
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.Resources;
+
+
+/**
+ * This task orders test classes so that those most likely to fail run first, based on the test index written by
+ * {@link JupiterResultFormatter} (see {@link TestIndex}).
+ * <p>
+ * Classes with a test that failed the last time it ran come first (most recent failure first), followed by classes
+ * that aren't in the index yet (i.e. new tests), followed by everything else from fastest to slowest.
+ * <p>
+ * Test classes are specified with nested resource collections (e.g. a {@code <fileset>} of {@code .class} or
+ * {@code .java} files).  The ordered list is made available as an ordered resource collection (the {@code refid}
+ * attribute, for use as {@code <testclasses><resources refid="..."/></testclasses>}) and/or as a list of resource names
+ * (the {@code property} attribute, separated by {@code separator}, which defaults to a comma).
+ *
+ * @author Mark Woon
+ */
+public class TestOrderTask extends Task {
+  private File m_reportDir;
+  private final List<ResourceCollection> m_resources = new ArrayList<>();
+  private String m_property;
+  private String m_refid;
+  private String m_separator = ",";
+
+
+  /**
+   * Sets the test report directory that {@link JupiterResultFormatter} writes to.
+   */
+  public void setReportDir(File reportDir) {
+    m_reportDir = reportDir;
+  }
+
+  public void add(ResourceCollection resources) {
+    m_resources.add(resources);
+  }
+
+  public void setProperty(String property) {
+    m_property = property;
+  }
+
+  public void setRefid(String refid) {
+    m_refid = refid;
+  }
+
+  public void setSeparator(String separator) {
+    m_separator = separator;
+  }
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    if (m_reportDir == null) {
+      throw new BuildException("Missing reportDir parameter");
+    }
+    if (m_property == null && m_refid == null) {
+      throw new BuildException("Missing property and/or refid parameter");
+    }
+
+    Map<String, ClassInfo> classes = summarize(TestIndex.load(m_reportDir));
+    List<Resource> ordered = new ArrayList<>();
+    for (ResourceCollection rc : m_resources) {
+      for (Resource resource : rc) {
+        ordered.add(resource);
+      }
+    }
+    ordered.sort(Comparator.comparing((Resource r) -> classes.get(toClassName(r.getName())), ClassInfo.sf_order)
+        .thenComparing(Resource::getName));
+
+    log("Ordered " + ordered.size() + " test classes", Project.MSG_VERBOSE);
+    if (m_property != null) {
+      StringBuilder builder = new StringBuilder();
+      for (Resource resource : ordered) {
+        if (builder.length() > 0) {
+          builder.append(m_separator);
+        }
+        builder.append(resource.getName());
+      }
+      getProject().setNewProperty(m_property, builder.toString());
+    }
+    if (m_refid != null) {
+      Resources resources = new Resources(getProject());
+      resources.setCache(true);
+      for (Resource resource : ordered) {
+        resources.add(resource);
+      }
+      getProject().addReference(m_refid, resources);
+    }
+  }
+
+
+  /**
+   * Converts a resource name (e.g. {@code org/example/FooTest.class}) to a class name.
+   */
+  static String toClassName(String name) {
+    String className = name.replace('\\', '/');
+    int idx = className.lastIndexOf('.');
+    if (idx > className.lastIndexOf('/')) {
+      className = className.substring(0, idx);
+    }
+    return className.replace('/', '.');
+  }
+
+
+  /**
+   * Rolls up test entries into classes.
+   */
+  private static Map<String, ClassInfo> summarize(TestIndex index) {
+    Map<String, ClassInfo> classes = new HashMap<>();
+    for (TestIndex.Entry entry : index.getEntries().values()) {
+      ClassInfo info = classes.computeIfAbsent(entry.className, k -> new ClassInfo());
+      info.nanos += entry.nanos;
+      if (TestIndex.sf_failed.equals(entry.status)) {
+        info.lastFailure = Math.max(info.lastFailure, entry.lastFailure);
+      }
+    }
+    return classes;
+  }
+
+
+  private static final class ClassInfo {
+    /**
+     * Classes that failed the last time they ran come first (most recent failure first), then classes that aren't in
+     * the index (null), then the rest from fastest to slowest.
+     */
+    static final Comparator<ClassInfo> sf_order = Comparator.comparingInt(ClassInfo::getGroup)
+        .thenComparingLong(c -> c == null ? 0 : -c.lastFailure)
+        .thenComparingLong(c -> c == null ? 0 : c.nanos);
+
+    /** Total duration of the class's tests. */
+    long nanos;
+    /** When the most recent of this class's tests that failed the last time they ran failed, 0 if none. */
+    long lastFailure;
+
+    static int getGroup(ClassInfo info) {
+      if (info == null) {
+        return 1;
+      }
+      return info.lastFailure > 0 ? 0 : 2;
+    }
+  }
+}
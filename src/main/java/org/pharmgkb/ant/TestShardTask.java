@@ -0,0 +1,156 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.Resources;
+
+
+/**
+ * This task splits test classes into shards that should take about the same amount of time to run, so that they can
+ * be run in separate JVMs or on separate machines.
+ * <p>
+ * How long each class takes comes from the test index written by {@link JupiterResultFormatter} (see
+ * {@link TestIndex}) in {@code reportDir}.  Classes that aren't in the index are assumed to take the average time.  If
+ * there's no index at all, every class is assumed to take the same time.  Classes are then assigned, slowest first, to
+ * whichever shard has the least work so far (greedy longest-processing-time scheduling).
+ * <p>
+ * Test classes are specified with nested resource collections (e.g. a {@code <fileset>} of {@code .class} files).
+ * Shards are numbered from 0.  For each shard N, this sets the property {@code <prefix>.N} to the (comma-separated)
+ * names of its test classes and the reference {@code <prefix>.N} to an equivalent resource collection.
+ *
+ * @author Mark Woon
+ */
+public class TestShardTask extends Task {
+  private File m_reportDir;
+  private final List<ResourceCollection> m_resources = new ArrayList<>();
+  private int m_shards;
+  private String m_prefix;
+  private String m_separator = ",";
+
+
+  /**
+   * Sets the test report directory that {@link JupiterResultFormatter} writes to.
+   */
+  public void setReportDir(File reportDir) {
+    m_reportDir = reportDir;
+  }
+
+  public void add(ResourceCollection resources) {
+    m_resources.add(resources);
+  }
+
+  public void setShards(int shards) {
+    m_shards = shards;
+  }
+
+  public void setPrefix(String prefix) {
+    m_prefix = prefix;
+  }
+
+  public void setSeparator(String separator) {
+    m_separator = separator;
+  }
+
+
+  @Override
+  public void execute() throws BuildException {
+
+    if (m_shards < 1) {
+      throw new BuildException("shards must be at least 1");
+    }
+    if (m_prefix == null) {
+      throw new BuildException("Missing prefix parameter");
+    }
+
+    List<Resource> tests = new ArrayList<>();
+    for (ResourceCollection rc : m_resources) {
+      for (Resource resource : rc) {
+        tests.add(resource);
+      }
+    }
+    // directory listings aren't guaranteed to be in the same order everywhere, and every machine has to come up with
+    // the same shards
+    tests.sort(Comparator.comparing(Resource::getName));
+    Map<String, Long> durations = m_reportDir == null ? null : TestIndex.load(m_reportDir).getClassDurations();
+    List<List<Resource>> shards = partition(tests, r -> durations == null ? null :
+        durations.get(TestOrderTask.toClassName(r.getName())), m_shards);
+
+    for (int x = 0; x < shards.size(); x += 1) {
+      String name = m_prefix + "." + x;
+      List<Resource> shard = shards.get(x);
+      log("Shard " + x + ": " + shard.size() + " test classes", Project.MSG_VERBOSE);
+
+      StringBuilder builder = new StringBuilder();
+      Resources resources = new Resources(getProject());
+      resources.setCache(true);
+      for (Resource resource : shard) {
+        if (builder.length() > 0) {
+          builder.append(m_separator);
+        }
+        builder.append(resource.getName());
+        resources.add(resource);
+      }
+      getProject().setNewProperty(name, builder.toString());
+      getProject().addReference(name, resources);
+    }
+  }
+
+
+  /**
+   * Splits {@code items} into {@code count} groups with about the same total weight.
+   *
+   * @param weights gets the weight of an item, or null if unknown (unknown items get the average weight)
+   */
+  static <T> List<List<T>> partition(List<T> items, Function<T, Long> weights, int count) {
+
+    long[] itemWeights = new long[items.size()];
+    long total = 0;
+    int known = 0;
+    for (int x = 0; x < items.size(); x += 1) {
+      Long weight = weights.apply(items.get(x));
+      if (weight != null) {
+        itemWeights[x] = weight;
+        total += weight;
+        known += 1;
+      } else {
+        itemWeights[x] = -1;
+      }
+    }
+    long average = known == 0 || total == 0 ? 1 : Math.max(1, total / known);
+    List<Integer> order = new ArrayList<>(items.size());
+    for (int x = 0; x < items.size(); x += 1) {
+      if (itemWeights[x] < 0) {
+        itemWeights[x] = average;
+      }
+      order.add(x);
+    }
+    // slowest first, ties in original order so results are stable
+    order.sort(Comparator.comparingLong((Integer x) -> -itemWeights[x]).thenComparingInt(x -> x));
+
+    List<List<T>> groups = new ArrayList<>(count);
+    // least loaded group first, ties go to the lowest numbered group
+    PriorityQueue<long[]> loads = new PriorityQueue<>(count,
+        Comparator.comparingLong((long[] l) -> l[0]).thenComparingLong(l -> l[1]));
+    for (int x = 0; x < count; x += 1) {
+      groups.add(new ArrayList<>());
+      loads.add(new long[] {0, x});
+    }
+    for (int idx : order) {
+      long[] load = loads.poll();
+      groups.get((int)load[1]).add(items.get(idx));
+      load[0] += itemWeights[idx];
+      loads.add(load);
+    }
+    return groups;
+  }
+}
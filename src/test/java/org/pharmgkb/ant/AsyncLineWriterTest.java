@@ -0,0 +1,123 @@
+package org.pharmgkb.ant;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link AsyncLineWriter}.
+ *
+ * @author Mark Woon
+ */
+public class AsyncLineWriterTest {
+
+  @Test
+  public void testWrite() throws Exception {
+
+    StringWriter out1 = new StringWriter();
+    StringWriter out2 = new StringWriter();
+    AsyncLineWriter writer = new AsyncLineWriter("test", new PrintWriter(out1), new PrintWriter(out2));
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t += 1) {
+      String prefix = "thread" + t + " ";
+      Thread thread = new Thread(() -> {
+        for (int x = 0; x < 5000; x += 1) {
+          assertTrue(writer.println(prefix + x));
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    writer.close();
+    // closing again is harmless
+    writer.close();
+    assertFalse(writer.println("too late"));
+
+    assertEquals(out1.toString(), out2.toString());
+    String[] lines = out1.toString().split(System.lineSeparator());
+    assertEquals(20000, lines.length);
+    // each thread's lines are in order
+    int[] next = new int[4];
+    for (String line : lines) {
+      int thread = line.charAt(6) - '0';
+      assertEquals("thread" + thread + " " + next[thread], line);
+      next[thread] += 1;
+    }
+  }
+
+
+  @Test
+  public void testCloseWhileWriting() throws Exception {
+
+    StringWriter out = new StringWriter();
+    AsyncLineWriter writer = new AsyncLineWriter("test", new PrintWriter(out));
+    Set<String> queued = ConcurrentHashMap.newKeySet();
+    CountDownLatch started = new CountDownLatch(4);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t += 1) {
+      String prefix = "thread" + t + " ";
+      Thread thread = new Thread(() -> {
+        started.countDown();
+        for (int x = 0; ; x += 1) {
+          String line = prefix + x;
+          if (!writer.println(line)) {
+            break;
+          }
+          queued.add(line);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    started.await();
+    Thread.sleep(20);
+    writer.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // every line that was accepted got written
+    Set<String> written = new HashSet<>();
+    for (String line : out.toString().split(System.lineSeparator())) {
+      written.add(line);
+    }
+    assertEquals(queued, written);
+  }
+
+
+  @Test
+  public void testFailedTarget() {
+
+    PrintWriter broken = new PrintWriter(new StringWriter()) {
+      @Override
+      public void println(String x) {
+        throw new IllegalStateException("broken");
+      }
+    };
+    AsyncLineWriter writer = new AsyncLineWriter("test", broken);
+    IllegalStateException ex = assertThrows(IllegalStateException.class, () -> {
+      // enough to fill the queue
+      for (int x = 0; x < 100_000; x += 1) {
+        writer.println("line " + x);
+      }
+    });
+    assertEquals("broken", ex.getCause().getMessage());
+    // doesn't hang
+    writer.close();
+  }
+}
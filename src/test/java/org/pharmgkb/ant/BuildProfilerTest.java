@@ -0,0 +1,128 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.DefaultLogger;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Sequential;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link BuildProfiler}.
+ *
+ * @author Mark Woon
+ */
+public class BuildProfilerTest {
+
+  @Test
+  public void testProfile() throws Exception {
+
+    File dir = Files.createTempDirectory("profile").toFile();
+    Project project = new Project();
+    project.setName("proj");
+    project.setBaseDir(dir);
+    project.setUserProperty("pgkb.profile.dir", dir.getPath());
+    project.addBuildListener(new BuildProfiler());
+
+    Target target = new Target();
+    target.setName("compile");
+    target.setProject(project);
+    Sequential sequential = new Sequential();
+    sequential.setProject(project);
+    sequential.setTaskName("sequential");
+    sequential.setOwningTarget(target);
+    sequential.addTask(newSleepTask(project, target));
+    sequential.addTask(newSleepTask(project, target));
+    target.addTask(sequential);
+    project.addTarget(target);
+
+    project.fireBuildStarted();
+    project.executeTarget("compile");
+    project.fireBuildFinished(null);
+
+    List<String> summary = Files.readAllLines(new File(dir, "profile-summary.txt").toPath(), StandardCharsets.UTF_8);
+    assertTrue(summary.get(0).startsWith("Build took "));
+    // slowest first: the target includes the tasks
+    assertTrue(summary.get(3).startsWith("target") && summary.get(3).endsWith("proj.compile"), summary.get(3));
+    assertTrue(summary.get(4).endsWith("sequential"), summary.get(4));
+    assertTrue(summary.get(5).contains(" 2  sleep"), summary.get(5));
+
+    List<String> folded = Files.readAllLines(new File(dir, "profile.folded").toPath(), StandardCharsets.UTF_8);
+    assertTrue(folded.stream().anyMatch(l -> l.startsWith("proj.compile;sequential;sleep ")), folded.toString());
+    long sleepMicros = folded.stream()
+        .filter(l -> l.startsWith("proj.compile;sequential;sleep "))
+        .mapToLong(l -> Long.parseLong(l.substring(l.lastIndexOf(' ') + 1)))
+        .sum();
+    assertTrue(sleepMicros >= 4000, "Expected at least 4ms but was " + sleepMicros + " microseconds");
+
+    String trace = new String(Files.readAllBytes(new File(dir, "profile-trace.json").toPath()),
+        StandardCharsets.UTF_8);
+    assertTrue(trace.startsWith("{\"traceEvents\":["));
+    assertEquals(2, trace.split("\"name\":\"sleep\"", -1).length - 1);
+    assertTrue(trace.contains("\"name\":\"proj.compile\",\"cat\":\"target\",\"ph\":\"X\""), trace);
+  }
+
+
+  @Test
+  public void testBadSettings() throws Exception {
+
+    // profile dir can't be created because it's a file
+    File file = Files.createTempFile("profile", ".txt").toFile();
+    Project project = new Project();
+    project.setBaseDir(file.getParentFile());
+    project.setUserProperty("pgkb.profile.dir", file.getPath());
+    project.setUserProperty("pgkb.profile.top", "lots");
+    project.addBuildListener(new BuildProfiler());
+    List<String> warnings = new ArrayList<>();
+    project.addBuildListener(new DefaultLogger() {
+      @Override
+      public void messageLogged(BuildEvent event) {
+        if (event.getPriority() == Project.MSG_WARN) {
+          warnings.add(event.getMessage());
+        }
+      }
+
+      @Override
+      public void buildFinished(BuildEvent event) {
+      }
+    });
+
+    project.fireBuildStarted();
+    project.fireBuildFinished(null);
+
+    assertEquals(2, warnings.size(), warnings.toString());
+    assertTrue(warnings.get(0).startsWith("Invalid pgkb.profile.top 'lots'"), warnings.get(0));
+    assertTrue(warnings.get(1).startsWith("Error writing build profile to "), warnings.get(1));
+  }
+
+
+  private static Task newSleepTask(Project project, Target target) {
+    Task task = new SleepTask();
+    task.setProject(project);
+    task.setTaskName("sleep");
+    task.setOwningTarget(target);
+    return task;
+  }
+
+
+  public static class SleepTask extends Task {
+    @Override
+    public void execute() {
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link DurationHistory}.
+ *
+ * @author Mark Woon
+ */
+public class DurationHistoryTest {
+
+  @Test
+  public void testFindRegressions() throws Exception {
+
+    File dir = Files.createTempDirectory("durationHistory").toFile();
+    DurationHistory history = DurationHistory.get(dir);
+    for (int x = 0; x < 10; x += 1) {
+      history.append(Collections.singletonMap("org.example.FooTest.test()", 20_000_000L + x));
+    }
+    assertTrue(new File(dir, DurationHistory.sf_filename).exists());
+
+    assertTrue(history.findRegressions(Collections.singletonMap("org.example.FooTest.test()", 25_000_000L), 1.5)
+        .isEmpty());
+    List<String> regressions = history.findRegressions(
+        Collections.singletonMap("org.example.FooTest.test()", 100_000_000L), 1.5);
+    assertEquals(1, regressions.size());
+    assertTrue(regressions.get(0).startsWith("org.example.FooTest.test() took 0.100s"));
+    // no history
+    assertTrue(history.findRegressions(Collections.singletonMap("org.example.BarTest.test()", 100_000_000L), 1.5)
+        .isEmpty());
+  }
+
+
+  @Test
+  public void testCompactKeepsOtherForks() throws Exception {
+
+    File dir = Files.createTempDirectory("durationHistory").toFile();
+    File file = new File(dir, DurationHistory.sf_filename);
+    DurationHistory history = DurationHistory.get(dir);
+    history.append(Collections.singletonMap("org.example.FooTest.test()", 20_000_000L));
+
+    // another JVM appends to the same file
+    Files.write(file.toPath(), "30000000\torg.example.BarTest.test()\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    // enough to trigger compaction
+    for (int x = 0; x < 100; x += 1) {
+      history.append(Collections.singletonMap("org.example.FooTest.test()", 20_000_000L + x));
+    }
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertTrue(lines.size() < 100);
+    assertTrue(lines.contains("30000000\torg.example.BarTest.test()"));
+    assertTrue(lines.contains("20000099\torg.example.FooTest.test()"));
+    File[] tmpFiles = dir.listFiles((d, name) -> name.endsWith(".tmp"));
+    assertFalse(tmpFiles == null || tmpFiles.length > 0);
+  }
+}
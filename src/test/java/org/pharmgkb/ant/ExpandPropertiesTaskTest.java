@@ -1,9 +1,11 @@
 package org.pharmgkb.ant;
 
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 /**
@@ -30,4 +32,104 @@ public void testTask() {
     System.out.println(project.getProperty("test.key"));
     assertEquals("https://www.pharmgkb.org/some/path", project.getUserProperty("test.key"));
   }
+
+
+  @Test
+  public void testManyProperties() {
+
+    Project project = new Project();
+    project.setUserProperty("name", "www");
+    for (int x = 0; x < 1000; x += 1) {
+      project.setUserProperty("server.www" + x, "www" + x + ".pharmgkb.org");
+      project.setUserProperty("url" + x, "https://${server.${name}" + x + "}/${path" + x + "}");
+      project.setUserProperty("path" + x, "path/${name}/" + x);
+    }
+
+    ExpandPropertiesTask task = new ExpandPropertiesTask();
+    task.setProject(project);
+    task.execute();
+    for (int x = 0; x < 1000; x += 1) {
+      assertEquals("https://www" + x + ".pharmgkb.org/path/www/" + x, project.getUserProperty("url" + x));
+    }
+  }
+
+  @Test
+  public void testCycle() {
+
+    Project project = new Project();
+    project.setUserProperty("a", "${b}");
+    project.setUserProperty("b", "${c}/x");
+    project.setUserProperty("c", "${a}");
+
+    ExpandPropertiesTask task = new ExpandPropertiesTask();
+    task.setProject(project);
+    BuildException ex = assertThrows(BuildException.class, task::execute);
+    assertEquals("Recursive keys: [a] --> [b] --> [c] --> [a]", ex.getMessage());
+  }
+
+
+  @Test
+  public void testIncremental() {
+
+    Project project = new Project();
+    project.setUserProperty("scheme", "https");
+    project.setUserProperty("server.www", "www.pharmgkb.org");
+    project.setUserProperty("server.beta", "beta.pharmgkb.org");
+    project.setUserProperty("name", "www");
+    project.setUserProperty("url", "${scheme}://${server.${name}}");
+
+    ExpandPropertiesTask task = new ExpandPropertiesTask();
+    task.setProject(project);
+    task.execute();
+    assertEquals("https://www.pharmgkb.org", project.getUserProperty("url"));
+
+    // new properties get expanded
+    project.setUserProperty("api", "${url}/api");
+    task.execute();
+    assertEquals("https://www.pharmgkb.org/api", project.getUserProperty("api"));
+
+    // changes get propagated to everything that depends on them
+    project.setUserProperty("name", "beta");
+    task.execute();
+    assertEquals("https://beta.pharmgkb.org", project.getUserProperty("url"));
+    assertEquals("https://beta.pharmgkb.org/api", project.getUserProperty("api"));
+
+    project.setUserProperty("server.beta", "beta2.pharmgkb.org");
+    task.execute();
+    assertEquals("https://beta2.pharmgkb.org/api", project.getUserProperty("api"));
+  }
+
+
+  @Test
+  public void testIncrementalRederives() {
+
+    Project project = new Project();
+    project.setUserProperty("host", "a.example.org");
+    project.setUserProperty("url", "https://${host}");
+    project.setUserProperty("api", "${url}/api");
+
+    ExpandPropertiesTask task = new ExpandPropertiesTask();
+    task.setProject(project);
+    task.execute();
+    assertEquals("https://a.example.org/api", project.getUserProperty("api"));
+
+    // a full pass would leave the already-expanded url alone, this re-derives it from its original value
+    project.setUserProperty("host", "b.example.org");
+    task.execute();
+    assertEquals("https://b.example.org", project.getUserProperty("url"));
+    assertEquals("https://b.example.org/api", project.getUserProperty("api"));
+
+    // properties that have been set to something else keep their new value
+    project.setUserProperty("url", "http://${host}:8080");
+    project.setUserProperty("host", "c.example.org");
+    task.execute();
+    assertEquals("http://c.example.org:8080", project.getUserProperty("url"));
+    assertEquals("http://c.example.org:8080/api", project.getUserProperty("api"));
+
+    // unchanged properties are left alone
+    project.setUserProperty("other", "${host}");
+    task.execute();
+    assertEquals("http://c.example.org:8080", project.getUserProperty("url"));
+    assertEquals("c.example.org", project.getUserProperty("other"));
+  }
 }
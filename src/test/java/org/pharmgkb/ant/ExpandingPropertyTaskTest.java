@@ -5,6 +5,7 @@
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 
 /**
@@ -42,5 +43,30 @@ public void testTask() {
     task.setValue("${scheme}://${server.${name}}/${path}");
     task.execute();
     assertEquals("https://www.pharmgkb.org/some/path", m_project.getProperty("key"));
+    // cache stats are opt-in
+    assertNull(m_project.getProperty(PropertyTemplate.sf_hitsProperty));
+  }
+
+
+  @Test
+  public void testCacheStats() {
+
+    m_project.setUserProperty(PropertyTemplate.sf_statsProperty, "true");
+    ExpandingPropertyTask task = new ExpandingPropertyTask();
+    task.setProject(m_project);
+    task.setName("key1");
+    task.setValue("${scheme}://${server.${name}}/cached");
+    task.execute();
+    long hits = Long.parseLong(m_project.getProperty(PropertyTemplate.sf_hitsProperty));
+    long misses = Long.parseLong(m_project.getProperty(PropertyTemplate.sf_missesProperty));
+
+    task = new ExpandingPropertyTask();
+    task.setProject(m_project);
+    task.setName("key2");
+    task.setValue("${scheme}://${server.${name}}/cached");
+    task.execute();
+    assertEquals("https://www.pharmgkb.org/cached", m_project.getProperty("key2"));
+    assertEquals(hits + 1, Long.parseLong(m_project.getProperty(PropertyTemplate.sf_hitsProperty)));
+    assertEquals(misses, Long.parseLong(m_project.getProperty(PropertyTemplate.sf_missesProperty)));
   }
 }
@@ -0,0 +1,42 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * This is a JUnit test for {@link ForkStats}.
+ *
+ * @author Mark Woon
+ */
+public class ForkStatsTest {
+
+  @Test
+  public void testSaveAndMerge() throws Exception {
+
+    File reportDir = Files.createTempDirectory("forkStats").toFile();
+    ForkStats fork1 = new ForkStats();
+    fork1.add("org.example.FooTest", new long[] {3, 1, 0, 0, 1000});
+    fork1.add("org.example.BarTest", new long[] {2, 0, 1, 1, 500});
+    fork1.save(reportDir, "fork1");
+    ForkStats fork2 = new ForkStats();
+    fork2.add("org.example.FooTest", new long[] {4, 0, 0, 1, 2000});
+    fork2.save(reportDir, "fork2");
+
+    ForkStats merged = new ForkStats();
+    merged.add(ForkStats.read(new File(reportDir, ForkStats.sf_dirName + "/fork1" + ForkStats.sf_suffix)));
+    merged.add(ForkStats.read(new File(reportDir, ForkStats.sf_dirName + "/fork2" + ForkStats.sf_suffix)));
+    assertEquals(2, merged.getClasses().size());
+    assertArrayEquals(new long[] {7, 1, 0, 1, 3000}, merged.getClasses().get("org.example.FooTest"));
+    assertArrayEquals(new long[] {9, 1, 1, 2, 3500}, merged.getTotals());
+
+    File index = new File(reportDir, "index.txt");
+    ForkStats.appendLocked(index, "a\n");
+    ForkStats.appendLocked(index, "b\n");
+    assertEquals("a\nb\n", new String(Files.readAllBytes(index.toPath())));
+  }
+}
@@ -0,0 +1,52 @@
+package org.pharmgkb.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link JavaVersionTask}.
+ *
+ * @author Mark Woon
+ */
+public class JavaVersionTaskTest {
+
+  @Test
+  public void testIsInRange() {
+
+    JavaVersion version = JavaVersion.parse("17.0.2+8");
+    assertTrue(JavaVersionTask.isInRange(version, "[11,22)"));
+    assertTrue(JavaVersionTask.isInRange(version, "[17,)"));
+    assertTrue(JavaVersionTask.isInRange(version, "(,17]"));
+    assertTrue(JavaVersionTask.isInRange(version, "[17]"));
+    assertTrue(JavaVersionTask.isInRange(version, "[11, 17]"));
+    assertFalse(JavaVersionTask.isInRange(version, "[11,17)"));
+    assertFalse(JavaVersionTask.isInRange(version, "(17,21]"));
+    assertFalse(JavaVersionTask.isInRange(version, "[1.8,11]"));
+
+    assertTrue(JavaVersionTask.isInRange(JavaVersion.parse("1.8.0_252"), "[1.8,11)"));
+    assertFalse(JavaVersionTask.isInRange(JavaVersion.parse("22-ea"), "[11,22)"));
+
+    assertThrows(IllegalArgumentException.class, () -> JavaVersionTask.isInRange(version, "11"));
+    assertThrows(IllegalArgumentException.class, () -> JavaVersionTask.isInRange(version, "(17)"));
+    assertThrows(IllegalArgumentException.class, () -> JavaVersionTask.isInRange(version, "[a,b]"));
+  }
+
+
+  @Test
+  public void testTask() {
+
+    JavaVersionTask task = new JavaVersionTask();
+    task.setProject(new Project());
+    task.setRange("[1.8,)");
+    task.execute();
+
+    task.setRange("[1,1.7]");
+    assertThrows(BuildException.class, task::execute);
+  }
+}
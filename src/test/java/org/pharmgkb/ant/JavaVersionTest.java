@@ -0,0 +1,65 @@
+package org.pharmgkb.ant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link JavaVersion}.
+ *
+ * @author Mark Woon
+ */
+public class JavaVersionTest {
+
+  @Test
+  public void testParse() {
+
+    JavaVersion version = JavaVersion.parse("1.8.0_252-b09");
+    assertEquals(8, version.feature());
+    assertArrayEquals(new int[] {8, 0, 252}, version.numbers());
+    assertNull(version.pre());
+
+    version = JavaVersion.parse("17.0.2+8-LTS");
+    assertArrayEquals(new int[] {17, 0, 2}, version.numbers());
+    assertNull(version.pre());
+
+    version = JavaVersion.parse("21-ea");
+    assertEquals(21, version.feature());
+    assertEquals("ea", version.pre());
+
+    assertEquals(10, JavaVersion.parse("1.10").feature());
+    assertEquals(1, JavaVersion.parse("1").feature());
+
+    assertThrows(IllegalArgumentException.class, () -> JavaVersion.parse("abc"));
+    assertThrows(IllegalArgumentException.class, () -> JavaVersion.parse("11."));
+  }
+
+
+  @Test
+  public void testCompare() {
+
+    assertTrue(JavaVersion.parse("1.10").compareTo(JavaVersion.parse("1.9")) > 0);
+    assertTrue(JavaVersion.parse("21-ea").compareTo(JavaVersion.parse("21")) < 0);
+    assertTrue(JavaVersion.parse("21-ea").compareTo(JavaVersion.parse("17.0.2+8")) > 0);
+    assertEquals(JavaVersion.parse("11"), JavaVersion.parse("11.0.0"));
+    assertEquals(JavaVersion.parse("11").hashCode(), JavaVersion.parse("11.0.0").hashCode());
+
+    assertEquals(0, JavaVersion.parse("11.0.2").compareToPrefix(JavaVersion.parse("11")));
+    assertEquals(0, JavaVersion.parse("1.8.0_252").compareToPrefix(JavaVersion.parse("1.8")));
+    assertEquals(0, JavaVersion.parse("21-ea").compareToPrefix(JavaVersion.parse("21")));
+    assertTrue(JavaVersion.parse("11.0.2").compareToPrefix(JavaVersion.parse("11.0.3")) < 0);
+  }
+
+
+  @Test
+  public void testCurrent() {
+    assertSame(JavaVersion.current(), JavaVersion.current());
+    assertTrue(JavaVersion.current().feature() >= 8);
+  }
+}
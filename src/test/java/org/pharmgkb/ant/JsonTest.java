@@ -0,0 +1,45 @@
+package org.pharmgkb.ant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * This is a JUnit test for {@link Json}.
+ *
+ * @author Mark Woon
+ */
+public class JsonTest {
+
+  @Test
+  public void testQuote() {
+
+    assertEquals("null", quote(null));
+    assertEquals("\"\"", quote(""));
+    assertEquals("\"plain text\"", quote("plain text"));
+    assertEquals("\"say \\\"hi\\\" \\\\ bye\"", quote("say \"hi\" \\ bye"));
+    assertEquals("\"a\\nb\\rc\\td\"", quote("a\nb\rc\td"));
+    assertEquals("\"\\u0000\\u0001\\u001f\"", quote("\u0000\u0001\u001f"));
+    // non-ASCII is kept as-is
+    assertEquals("\"caf\u00e9 \u2713\"", quote("caf\u00e9 \u2713"));
+    // surrogate pairs are kept, lone surrogates are escaped
+    assertEquals("\"\ud83d\ude00\"", quote("\ud83d\ude00"));
+    assertEquals("\"a\\ud83db\"", quote("a\ud83db"));
+    assertEquals("\"\\ude00\\ud83d\"", quote("\ude00\ud83d"));
+  }
+
+
+  @Test
+  public void testField() {
+
+    assertEquals("\"name\":\"value\"", Json.field(new StringBuilder(), "name", "value").toString());
+    assertEquals("\"name\":null", Json.field(new StringBuilder(), "name", (String)null).toString());
+    assertEquals("\"nanos\":-1", Json.field(new StringBuilder(), "nanos", -1).toString());
+  }
+
+
+  private static String quote(String text) {
+    return Json.quote(new StringBuilder(), text).toString();
+  }
+}
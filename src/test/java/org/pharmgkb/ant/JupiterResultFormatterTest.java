@@ -0,0 +1,570 @@
+package org.pharmgkb.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.optional.junitlauncher.TestExecutionContext;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.reporting.ReportEntry;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.EngineDescriptor;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link JupiterResultFormatter}.
+ *
+ * @author Mark Woon
+ */
+public class JupiterResultFormatterTest {
+  private static final long sf_second = TimeUnit.SECONDS.toNanos(1);
+  private static final String sf_className = "org.example.FooTest";
+
+
+  @Test
+  public void testFormatProgress() {
+
+    assertEquals("Progress: 0/100 (0%), 0 failed, 0.0 tests/s, ETA unknown",
+        JupiterResultFormatter.formatProgress(0, 100, 0, 0, 0, 0, 0));
+
+    // no history, so based on the number of tests left
+    assertEquals("Progress: 25/100 (25%), 2 failed, 0.5 tests/s, ETA 2m 30s",
+        JupiterResultFormatter.formatProgress(25, 100, 2, 50 * sf_second, 0, 0, 0));
+
+    // the tests that are done took 10s last time and this run took 50s, so the 20s left should take 100s
+    assertEquals("Progress: 25/100 (25%), 2 failed, 0.5 tests/s, ETA 1m 40s",
+        JupiterResultFormatter.formatProgress(25, 100, 2, 50 * sf_second, 10 * sf_second, 20 * sf_second, 0));
+
+    assertEquals("Progress: 25/100 (25%), 0 failed, 0.5 tests/s, ETA 2m 30s (nothing finished in 30s)",
+        JupiterResultFormatter.formatProgress(25, 100, 0, 50 * sf_second, 0, 0, 30 * sf_second + 5));
+
+    assertEquals("Progress: 100/100 (100%), 0 failed, 2.0 tests/s, ETA 0s",
+        JupiterResultFormatter.formatProgress(100, 100, 0, 50 * sf_second, 0, 0, 0));
+  }
+
+
+  @Test
+  public void testProgress() throws Exception {
+
+    // the last status line goes to the console (through the async writer), but not the report
+    for (String async : new String[] { "false", "true" }) {
+      File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+      JupiterResultFormatter formatter = newFormatter(reportDir, "testReportProgress", "3600", "testReportAsync",
+          async);
+      ByteArrayOutputStream console = new ByteArrayOutputStream();
+      formatter.setDestination(console);
+      new Plan().run(formatter, TestExecutionResult.failed(new AssertionError("boom")),
+          TestExecutionResult.successful());
+      assertTrue(new String(console.toByteArray(), StandardCharsets.UTF_8).contains("Progress: 2/2 (100%), 1 failed"),
+          async);
+      assertFalse(readReport(reportDir).contains("Progress:"), async);
+    }
+  }
+
+
+  @Test
+  public void testSlowest() throws Exception {
+
+    // problems-only reports have no stats
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    Plan plan = new Plan();
+    plan.run(newFormatter(reportDir), TestExecutionResult.failed(new AssertionError("boom")),
+        TestExecutionResult.successful());
+    String report = readReport(reportDir);
+    assertTrue(report.contains("FAILED: test0()"));
+    assertFalse(report.contains("Slowest"));
+
+    // bad numbers fall back to the default
+    reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    plan.run(newFormatter(reportDir, "testReportProblemsOnly", "false", "testReportSlowest", "ten"),
+        TestExecutionResult.successful(), TestExecutionResult.successful());
+    report = readReport(reportDir);
+    assertTrue(report.contains("Slowest tests:"));
+    assertTrue(report.contains("Slowest test classes:"));
+  }
+
+
+  @Test
+  public void testParallel() throws Exception {
+
+    int numClasses = 20;
+    int numTests = 10;
+    UniqueId engineId = UniqueId.forEngine("junit-jupiter");
+    EngineDescriptor engineDescriptor = new EngineDescriptor(engineId, "JUnit Jupiter");
+    TestIdentifier[] classes = new TestIdentifier[numClasses];
+    TestIdentifier[][] tests = new TestIdentifier[numClasses][numTests];
+    for (int c = 0; c < numClasses; c += 1) {
+      String className = "org.example.Foo" + c + "Test";
+      SimpleDescriptor classDescriptor = new SimpleDescriptor(engineId.append("class", className), "Foo" + c + "Test",
+          ClassSource.from(className), TestDescriptor.Type.CONTAINER);
+      engineDescriptor.addChild(classDescriptor);
+      for (int t = 0; t < numTests; t += 1) {
+        SimpleDescriptor testDescriptor = new SimpleDescriptor(
+            classDescriptor.getUniqueId().append("method", "test" + t + "()"), "c" + c + ".test" + t + "()",
+            MethodSource.from(className, "test" + t), TestDescriptor.Type.TEST);
+        classDescriptor.addChild(testDescriptor);
+        tests[c][t] = TestIdentifier.from(testDescriptor);
+      }
+      classes[c] = TestIdentifier.from(classDescriptor);
+    }
+    TestPlan testPlan = TestPlan.from(Collections.singletonList(engineDescriptor));
+    TestIdentifier engine = TestIdentifier.from(engineDescriptor);
+
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    JupiterResultFormatter formatter = newFormatter(reportDir, "testReportProblemsOnly", "false",
+        "testReportSlowest", "0");
+    formatter.testPlanExecutionStarted(testPlan);
+    formatter.executionStarted(engine);
+    // classes run at the same time, and so do the tests in each class
+    ExecutorService classExecutor = Executors.newFixedThreadPool(4);
+    ExecutorService testExecutor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> classFutures = new ArrayList<>();
+      for (int c = 0; c < numClasses; c += 1) {
+        int classIdx = c;
+        classFutures.add(classExecutor.submit(() -> {
+          formatter.executionStarted(classes[classIdx]);
+          List<Future<?>> testFutures = new ArrayList<>();
+          for (int t = 0; t < numTests; t += 1) {
+            TestIdentifier test = tests[classIdx][t];
+            boolean fail = t % 5 == 0;
+            testFutures.add(testExecutor.submit(() -> {
+              formatter.executionStarted(test);
+              formatter.executionFinished(test, fail ? TestExecutionResult.failed(new AssertionError("boom")) :
+                  TestExecutionResult.successful());
+            }));
+          }
+          for (Future<?> future : testFutures) {
+            future.get();
+          }
+          formatter.executionFinished(classes[classIdx], TestExecutionResult.successful());
+          return null;
+        }));
+      }
+      for (Future<?> future : classFutures) {
+        future.get();
+      }
+    } finally {
+      classExecutor.shutdown();
+      testExecutor.shutdown();
+    }
+    formatter.executionFinished(engine, TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(testPlan);
+    formatter.close();
+
+    // each class is listed in one block, with only its own tests, and the right counts
+    int numBlocks = 0;
+    String current = null;
+    int failures = 0;
+    for (String line : readReport(reportDir).split("\n")) {
+      if (line.startsWith("org.example.")) {
+        assertNull(current, line);
+        current = line;
+        failures = 0;
+        numBlocks += 1;
+      } else if (line.startsWith("  FAILED: ")) {
+        assertNotNull(current, line);
+        String prefix = "  FAILED: c" + current.substring("org.example.Foo".length(), current.length() - 4) + ".";
+        assertTrue(line.startsWith(prefix), line);
+        failures += 1;
+      } else if (line.startsWith("  Tests run: ")) {
+        assertNotNull(current, line);
+        assertTrue(line.startsWith("  Tests run: 10, Failures: 2, Aborted: 0, Skipped: 0,"), line);
+        assertEquals(2, failures, current);
+        current = null;
+      }
+    }
+    assertNull(current);
+    assertEquals(numClasses, numBlocks);
+  }
+
+
+  @Test
+  public void testOutput() throws Exception {
+
+    // failed tests get their own output, passing tests' output is dropped
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    JupiterResultFormatter formatter = newFormatter(reportDir);
+    Plan plan = new Plan();
+    formatter.testPlanExecutionStarted(plan.testPlan);
+    formatter.executionStarted(plan.testClass);
+    formatter.executionStarted(plan.tests[0]);
+    formatter.sysOutAvailable("hello0\n".getBytes(StandardCharsets.UTF_8));
+    formatter.sysErrAvailable("oops0\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.tests[0], TestExecutionResult.failed(new AssertionError("boom")));
+    formatter.executionStarted(plan.tests[1]);
+    formatter.sysOutAvailable("hello1\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.tests[1], TestExecutionResult.successful());
+    // no test running
+    formatter.sysOutAvailable("teardown\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.testClass, TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(plan.testPlan);
+    formatter.close();
+    String report = readReport(reportDir);
+    int failed = report.indexOf("  FAILED: test0()\n");
+    assertTrue(failed >= 0, report);
+    assertTrue(report.indexOf("    hello0\n") > failed, report);
+    assertTrue(report.indexOf("    oops0\n") > failed, report);
+    assertFalse(report.contains("hello1"), report);
+    int planOutput = report.indexOf("Output (not tied to a single test):");
+    assertTrue(planOutput > report.indexOf("    oops0\n"), report);
+    assertTrue(report.indexOf("    teardown\n") > planOutput, report);
+
+    // output can't be tied to a test when several are running
+    reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    formatter = newFormatter(reportDir);
+    formatter.testPlanExecutionStarted(plan.testPlan);
+    formatter.executionStarted(plan.tests[0]);
+    formatter.executionStarted(plan.tests[1]);
+    formatter.sysOutAvailable("both\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.tests[1], TestExecutionResult.successful());
+    formatter.executionFinished(plan.tests[0], TestExecutionResult.failed(new AssertionError("boom")));
+    formatter.testPlanExecutionFinished(plan.testPlan);
+    formatter.close();
+    report = readReport(reportDir);
+    assertTrue(report.indexOf("    both\n") > report.indexOf("Output (not tied to a single test):"), report);
+
+    // nothing listed if nothing failed
+    reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    formatter = newFormatter(reportDir, "testReportProblemsOnly", "false");
+    formatter.testPlanExecutionStarted(plan.testPlan);
+    formatter.sysOutAvailable("hello\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionStarted(plan.tests[0]);
+    formatter.sysOutAvailable("hello0\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.tests[0], TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(plan.testPlan);
+    formatter.close();
+    assertFalse(readReport(reportDir).contains("hello"));
+
+    // always listed
+    reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    formatter = newFormatter(reportDir, "testReportOutput", "all");
+    formatter.testPlanExecutionStarted(plan.testPlan);
+    formatter.executionStarted(plan.testClass);
+    formatter.executionStarted(plan.tests[0]);
+    formatter.sysOutAvailable("hello0\n".getBytes(StandardCharsets.UTF_8));
+    formatter.executionFinished(plan.tests[0], TestExecutionResult.successful());
+    formatter.executionFinished(plan.testClass, TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(plan.testPlan);
+    formatter.close();
+    report = readReport(reportDir);
+    assertTrue(report.indexOf("    hello0\n") > report.indexOf("  OUTPUT: test0()\n"), report);
+    assertTrue(report.contains("  OUTPUT: test0()\n"), report);
+  }
+
+
+  @Test
+  public void testTraceKey() {
+
+    // same frames, different messages
+    Throwable[] errors = new Throwable[2];
+    for (int x = 0; x < errors.length; x += 1) {
+      errors[x] = new IllegalStateException("error " + x);
+    }
+    assertEquals(new JupiterResultFormatter.TraceKey(errors[0]), new JupiterResultFormatter.TraceKey(errors[1]));
+    assertEquals(new JupiterResultFormatter.TraceKey(errors[0]).hashCode(),
+        new JupiterResultFormatter.TraceKey(errors[1]).hashCode());
+
+    // different line
+    Throwable other = new IllegalStateException("error 0");
+    assertNotEquals(new JupiterResultFormatter.TraceKey(errors[0]), new JupiterResultFormatter.TraceKey(other));
+    // different type
+    Throwable wrongType = new IllegalArgumentException("error 0");
+    wrongType.setStackTrace(errors[0].getStackTrace());
+    assertNotEquals(new JupiterResultFormatter.TraceKey(errors[0]), new JupiterResultFormatter.TraceKey(wrongType));
+    // different cause
+    Throwable withCause = new IllegalStateException("error 0", other);
+    withCause.setStackTrace(errors[0].getStackTrace());
+    assertNotEquals(new JupiterResultFormatter.TraceKey(errors[0]), new JupiterResultFormatter.TraceKey(withCause));
+  }
+
+
+  @Test
+  public void testRepeatedFailures() throws Exception {
+
+    // parameterized tests share a display name, but not a unique ID
+    Plan plan = new Plan("test(String)", "test(String)");
+    Throwable[] errors = new Throwable[2];
+    for (int x = 0; x < errors.length; x += 1) {
+      errors[x] = new AssertionError("boom " + x);
+    }
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    plan.run(newFormatter(reportDir), TestExecutionResult.failed(errors[0]), TestExecutionResult.failed(errors[1]));
+    String report = readReport(reportDir);
+    assertTrue(report.contains("(AssertionError): boom 0 [trace #1]"));
+    assertTrue(report.contains("(AssertionError): boom 1\n    (same stack trace as #1: " + sf_className +
+        ".test(String))"), report);
+    assertFalse(report.contains("[trace #2]"));
+    assertTrue(report.contains("Repeated failures:\n  2 x #1 (AssertionError) first in " + sf_className +
+        ".test(String)\n"), report);
+
+    // nothing repeated
+    reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    plan.run(newFormatter(reportDir), TestExecutionResult.failed(new AssertionError("boom")),
+        TestExecutionResult.failed(new IllegalStateException("boom")));
+    report = readReport(reportDir);
+    assertTrue(report.contains("[trace #1]"));
+    assertTrue(report.contains("[trace #2]"));
+    assertFalse(report.contains("Repeated failures:"));
+  }
+
+
+  @Test
+  public void testForks() throws Exception {
+
+    // each fork writes its own reports
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    Plan plan = new Plan();
+    for (int x = 0; x < 2; x += 1) {
+      plan.run(newFormatter(reportDir, "testReportForkStats", "true", "testReportJsonl", "true",
+          "testReportMetrics", "true"),
+          TestExecutionResult.failed(new AssertionError("boom")), TestExecutionResult.successful());
+    }
+    assertEquals(2, countFiles(reportDir, ".txt"));
+    assertEquals(2, countFiles(reportDir, ".jsonl"));
+    File[] metrics = reportDir.listFiles((d, name) -> name.startsWith("test-metrics-fork-"));
+    assertEquals(2, metrics == null ? 0 : metrics.length);
+    for (File file : metrics) {
+      String fork = file.getName().substring("test-metrics-".length(), file.getName().length() - ".prom".length());
+      assertTrue(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+          .contains("junit_test_duration_seconds_count{fork=\"" + fork + "\"} 2\n"));
+    }
+    assertFalse(new File(reportDir, "index.txt").exists());
+    assertFalse(new File(reportDir, "index.jsonl").exists());
+
+    MergeTestReportsTask task = new MergeTestReportsTask();
+    task.setProject(new Project());
+    task.setReportDir(reportDir);
+    task.execute();
+    assertEquals(0, countFiles(reportDir, ".txt"));
+    assertEquals(0, countFiles(reportDir, ".jsonl"));
+    String report = readReport(reportDir);
+    assertEquals(3, report.split("FAILED: test0\\(\\)", -1).length);
+    assertEquals(2, Files.readAllLines(new File(reportDir, "index.jsonl").toPath()).stream()
+        .filter(l -> l.startsWith("{\"event\":\"planStarted\""))
+        .count());
+    assertTrue(new File(reportDir, "summary.txt").exists());
+  }
+
+  /**
+   * Counts per-fork {@code index-*} files with the given suffix.
+   */
+  private static int countFiles(File reportDir, String suffix) {
+    File[] files = reportDir.listFiles((d, name) -> name.startsWith("index-fork-") && name.endsWith(suffix));
+    return files == null ? 0 : files.length;
+  }
+
+
+  @Test
+  public void testJsonl() throws Exception {
+
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    JupiterResultFormatter formatter = newFormatter(reportDir, "testReportJsonl", "true");
+    Plan plan = new Plan();
+    formatter.testPlanExecutionStarted(plan.testPlan);
+    formatter.executionStarted(plan.engine);
+    formatter.executionStarted(plan.testClass);
+    formatter.executionStarted(plan.tests[0]);
+    formatter.reportingEntryPublished(plan.tests[0], ReportEntry.from("key", "a \"quoted\"\nvalue"));
+    formatter.executionFinished(plan.tests[0], TestExecutionResult.failed(new AssertionError("boom")));
+    formatter.executionSkipped(plan.tests[1], "disabled");
+    formatter.executionFinished(plan.testClass, TestExecutionResult.successful());
+    // the engine is left out, even if it is skipped
+    formatter.executionSkipped(plan.engine, "whatever");
+    formatter.executionFinished(plan.engine, TestExecutionResult.successful());
+    formatter.testPlanExecutionFinished(plan.testPlan);
+    formatter.close();
+
+    List<String> lines = Files.readAllLines(new File(reportDir, "index.jsonl").toPath(), StandardCharsets.UTF_8);
+    String test0 = "\"uniqueId\":\"[engine:junit-jupiter]/[class:org.example.FooTest]/[method:test0()]\"," +
+        "\"class\":\"org.example.FooTest\",\"displayName\":\"test0()\",\"type\":\"TEST\"";
+    String[] expected = {
+        "{\"event\":\"planStarted\",\"nanos\":#,\"timestamp\":#}",
+        "{\"event\":\"started\",\"nanos\":#,\"uniqueId\":\"[engine:junit-jupiter]/[class:org.example.FooTest]\"," +
+            "\"class\":\"org.example.FooTest\",\"displayName\":\"FooTest\",\"type\":\"CONTAINER\"}",
+        "{\"event\":\"started\",\"nanos\":#," + test0 + "}",
+        "{\"event\":\"reportEntry\",\"nanos\":#," + test0 + ",\"timestamp\":\"#\"," +
+            "\"entries\":{\"key\":\"a \\\"quoted\\\"\\nvalue\"}}",
+        "{\"event\":\"finished\",\"nanos\":#," + test0 + ",\"status\":\"FAILED\",\"durationNanos\":#," +
+            "\"throwable\":\"java.lang.AssertionError\",\"message\":\"boom\"}",
+        "{\"event\":\"skipped\",\"nanos\":#," + test0.replace("test0", "test1") + ",\"reason\":\"disabled\"}",
+        "{\"event\":\"finished\",\"nanos\":#,\"uniqueId\":\"[engine:junit-jupiter]/[class:org.example.FooTest]\"," +
+            "\"class\":\"org.example.FooTest\",\"displayName\":\"FooTest\",\"type\":\"CONTAINER\"," +
+            "\"status\":\"SUCCESSFUL\"}",
+        "{\"event\":\"planFinished\",\"nanos\":#}",
+    };
+    assertEquals(expected.length, lines.size());
+    for (int x = 0; x < expected.length; x += 1) {
+      String line = lines.get(x)
+          .replaceAll("(\"(nanos|durationNanos|timestamp)\":)\\d+", "$1#")
+          .replaceAll("(\"timestamp\":\")[^\"]+", "$1#");
+      assertEquals(expected[x], line);
+    }
+  }
+
+
+  @Test
+  public void testJsonlSharedFile() throws Exception {
+
+    // formatters writing to the same file at the same time never split up each other's lines
+    File reportDir = Files.createTempDirectory("jupiterResultFormatter").toFile();
+    String[] displayNames = new String[500];
+    for (int x = 0; x < displayNames.length; x += 1) {
+      displayNames[x] = "t\u00e9st" + x + "()";
+    }
+    Plan plan = new Plan(displayNames);
+    TestExecutionResult[] results = new TestExecutionResult[displayNames.length];
+    Arrays.fill(results, TestExecutionResult.successful());
+    int numFormatters = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numFormatters);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int x = 0; x < numFormatters; x += 1) {
+        JupiterResultFormatter formatter = newFormatter(reportDir, "testReportJsonl", "true", "testReportIndex",
+            "false");
+        futures.add(executor.submit(() -> plan.run(formatter, results)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    List<String> lines = Files.readAllLines(new File(reportDir, "index.jsonl").toPath(), StandardCharsets.UTF_8);
+    // plan started/finished, class started/finished, and each test started/finished
+    assertEquals(numFormatters * (4 + 2 * displayNames.length), lines.size());
+    for (String line : lines) {
+      assertTrue(line.startsWith("{\"event\":") && line.endsWith("}"), line);
+    }
+    assertTrue(lines.stream().anyMatch(l -> l.contains("\"displayName\":\"t\u00e9st499()\"")));
+  }
+
+
+  /**
+   * Creates a formatter that writes to {@code reportDir}.
+   *
+   * @param properties extra properties, as name/value pairs
+   */
+  static JupiterResultFormatter newFormatter(File reportDir, String... properties) {
+    Properties props = new Properties();
+    props.setProperty("testReportDir", reportDir.getAbsolutePath());
+    for (int x = 0; x < properties.length; x += 2) {
+      props.setProperty(properties[x], properties[x + 1]);
+    }
+    JupiterResultFormatter formatter = new JupiterResultFormatter();
+    formatter.setDestination(new ByteArrayOutputStream());
+    formatter.setContext(new TestExecutionContext() {
+      @Override
+      public Properties getProperties() {
+        return props;
+      }
+
+      @Override
+      public Optional<Project> getProject() {
+        return Optional.empty();
+      }
+    });
+    return formatter;
+  }
+
+  static String readReport(File reportDir) throws Exception {
+    return new String(Files.readAllBytes(new File(reportDir, "index.txt").toPath()), StandardCharsets.UTF_8)
+        .replace("\r\n", "\n");
+  }
+
+
+  /**
+   * A test plan with a single class ({@link #sf_className}) and two tests ({@code test0()} and {@code test1()}).
+   */
+  static final class Plan {
+    final TestPlan testPlan;
+    final TestIdentifier engine;
+    final TestIdentifier testClass;
+    final TestIdentifier[] tests;
+
+    Plan() {
+      this("test0()", "test1()");
+    }
+
+    /**
+     * A test plan with a single class ({@link #sf_className}) and tests with the given display names.
+     */
+    Plan(String... displayNames) {
+      tests = new TestIdentifier[displayNames.length];
+      UniqueId engineId = UniqueId.forEngine("junit-jupiter");
+      EngineDescriptor engineDescriptor = new EngineDescriptor(engineId, "JUnit Jupiter");
+      SimpleDescriptor classDescriptor = new SimpleDescriptor(engineId.append("class", sf_className), "FooTest",
+          ClassSource.from(sf_className), TestDescriptor.Type.CONTAINER);
+      engineDescriptor.addChild(classDescriptor);
+      for (int x = 0; x < tests.length; x += 1) {
+        SimpleDescriptor testDescriptor = new SimpleDescriptor(
+            classDescriptor.getUniqueId().append("method", "test" + x + "()"), displayNames[x],
+            MethodSource.from(sf_className, "test" + x), TestDescriptor.Type.TEST);
+        classDescriptor.addChild(testDescriptor);
+        tests[x] = TestIdentifier.from(testDescriptor);
+      }
+      testPlan = TestPlan.from(Collections.singletonList(engineDescriptor));
+      engine = TestIdentifier.from(engineDescriptor);
+      testClass = TestIdentifier.from(classDescriptor);
+    }
+
+    /**
+     * Runs the plan, with the given results for each test.
+     */
+    void run(JupiterResultFormatter formatter, TestExecutionResult... results) {
+      formatter.testPlanExecutionStarted(testPlan);
+      formatter.executionStarted(engine);
+      formatter.executionStarted(testClass);
+      for (int x = 0; x < tests.length; x += 1) {
+        formatter.executionStarted(tests[x]);
+        formatter.executionFinished(tests[x], results[x]);
+      }
+      formatter.executionFinished(testClass, TestExecutionResult.successful());
+      formatter.executionFinished(engine, TestExecutionResult.successful());
+      formatter.testPlanExecutionFinished(testPlan);
+      formatter.close();
+    }
+  }
+
+
+  private static final class SimpleDescriptor extends AbstractTestDescriptor {
+    private final Type m_type;
+
+    SimpleDescriptor(UniqueId uniqueId, String displayName, TestSource source, Type type) {
+      super(uniqueId, displayName, source);
+      m_type = type;
+    }
+
+    @Override
+    public Type getType() {
+      return m_type;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.pharmgkb.ant;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * This is a JUnit test for {@link LazyExpandPropertiesTask}.
+ *
+ * @author Mark Woon
+ */
+public class LazyExpandPropertiesTaskTest {
+  private Project m_project;
+
+  @BeforeEach
+  public void setup() {
+    m_project = new Project();
+    m_project.setUserProperty("scheme", "https");
+    m_project.setUserProperty("server.www", "www.pharmgkb.org");
+    m_project.setUserProperty("server.api", "api.pharmgkb.org");
+    m_project.setUserProperty("name", "www");
+    m_project.setUserProperty("path", "some/path");
+    m_project.setUserProperty("url", "${scheme}://${server.${name}}/${path}");
+
+    LazyExpandPropertiesTask task = new LazyExpandPropertiesTask();
+    task.setProject(m_project);
+    task.execute();
+    // installing again shouldn't do anything
+    task.execute();
+  }
+
+
+  @Test
+  public void testExpand() {
+
+    assertEquals("https://www.pharmgkb.org/some/path", m_project.getProperty("url"));
+    assertEquals("https://www.pharmgkb.org/some/path", m_project.getProperty("url"));
+    assertEquals("go to https://www.pharmgkb.org/some/path", m_project.replaceProperties("go to ${url}"));
+    assertEquals("www", m_project.getProperty("name"));
+    assertNull(m_project.getProperty("missing"));
+
+    // changes to anything that went into the value are picked up
+    m_project.setUserProperty("name", "api");
+    assertEquals("https://api.pharmgkb.org/some/path", m_project.getProperty("url"));
+    m_project.setUserProperty("server.api", "api2.pharmgkb.org");
+    assertEquals("https://api2.pharmgkb.org/some/path", m_project.getProperty("url"));
+  }
+
+
+  @Test
+  public void testErrors() {
+
+    m_project.setUserProperty("bad", "${missing}");
+    BuildException ex = assertThrows(BuildException.class, () -> m_project.getProperty("bad"));
+    assertEquals("Cannot find value for 'missing' in key 'bad'", ex.getMessage());
+
+    m_project.setUserProperty("a", "${b}");
+    m_project.setUserProperty("b", "x${a}");
+    ex = assertThrows(BuildException.class, () -> m_project.getProperty("a"));
+    assertEquals("Recursive keys: [a] --> [b] --> [a]", ex.getMessage());
+  }
+}
@@ -0,0 +1,57 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link OutputBuffer}.
+ *
+ * @author Mark Woon
+ */
+public class OutputBufferTest {
+
+  @Test
+  public void testBuffer() throws Exception {
+
+    File dir = Files.createTempDirectory("outputBuffer").toFile();
+    StringBuilder expected = new StringBuilder();
+    for (int x = 0; x < 2000; x += 1) {
+      expected.append("line ").append(x).append('\n');
+    }
+    byte[] bytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+
+    OutputBuffer buffer = new OutputBuffer(bytes.length, dir);
+    buffer.write(bytes, 0, bytes.length);
+    assertNull(buffer.getSpillFile());
+    assertEquals(bytes.length, buffer.length());
+    assertEquals(expected.toString(), new String(buffer.read(0, bytes.length), StandardCharsets.UTF_8));
+    assertEquals("line 1\n", new String(buffer.read(7, 14), StandardCharsets.UTF_8));
+    buffer.close();
+
+    buffer = new OutputBuffer(100, dir);
+    buffer.write(bytes, 0, 50);
+    buffer.write(bytes, 50, bytes.length - 50);
+    File spillFile = buffer.getSpillFile();
+    assertNotNull(spillFile);
+    assertEquals(expected.toString(), new String(buffer.read(0, bytes.length), StandardCharsets.UTF_8));
+    buffer.close();
+    assertFalse(spillFile.exists());
+
+    buffer = new OutputBuffer(100, dir);
+    buffer.write(bytes, 0, bytes.length);
+    buffer.keep();
+    buffer.close();
+    spillFile = buffer.getSpillFile();
+    assertTrue(spillFile.exists());
+    assertEquals(expected.toString(), new String(Files.readAllBytes(spillFile.toPath()), StandardCharsets.UTF_8));
+  }
+}
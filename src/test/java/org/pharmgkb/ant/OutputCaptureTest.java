@@ -0,0 +1,65 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link OutputCapture}.
+ *
+ * @author Mark Woon
+ */
+public class OutputCaptureTest {
+
+  @Test
+  public void testCapture() throws Exception {
+
+    File dir = Files.createTempDirectory("outputCapture").toFile();
+
+    try (OutputCapture capture = OutputCapture.of("short", 10, dir, "FooTest-stderr")) {
+      StringWriter writer = new StringWriter();
+      capture.writeTo(writer);
+      assertEquals("short", writer.toString());
+      assertNull(capture.getSpillFile());
+    }
+
+    try (OutputCapture capture = new OutputCapture(10, dir, "FooTest-stderr")) {
+      capture.append("0123");
+      capture.append("456789");
+      assertNull(capture.getSpillFile());
+      capture.append("abc");
+      capture.append("defghijk");
+      assertEquals(21, capture.length());
+
+      StringWriter writer = new StringWriter();
+      capture.writeTo(writer);
+      File spillFile = capture.getSpillFile();
+      assertEquals(new File(dir, "FooTest-stderr.txt"), spillFile);
+      String text = writer.toString();
+      assertTrue(text.startsWith("01234"));
+      assertTrue(text.contains("... 11 characters omitted, full output in " + spillFile.getAbsolutePath()));
+      assertTrue(text.endsWith("ghijk"));
+
+      capture.close();
+      assertEquals("0123456789abcdefghijk", new String(Files.readAllBytes(spillFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    // the next run replaces the file instead of leaving another one behind
+    try (OutputCapture capture = OutputCapture.of("0123456789ABC", 10, dir, "FooTest-stderr")) {
+      assertEquals(new File(dir, "FooTest-stderr.txt"), capture.getSpillFile());
+    }
+    assertEquals("0123456789ABC", new String(Files.readAllBytes(new File(dir, "FooTest-stderr.txt").toPath()),
+        StandardCharsets.UTF_8));
+    File[] files = dir.listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+  }
+}
@@ -0,0 +1,71 @@
+package org.pharmgkb.ant;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.tools.ant.BuildException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link PropertyExpander}.
+ *
+ * @author Mark Woon
+ */
+public class PropertyExpanderTest {
+
+  private static Map<String, Object> newProperties() {
+    Map<String, Object> props = new HashMap<>();
+    props.put("scheme", "https");
+    props.put("server.www", "www.pharmgkb.org");
+    props.put("name", "www");
+    props.put("path", "some/path");
+    props.put("url", "${scheme}://${server.${name}}/${path}");
+    return props;
+  }
+
+
+  @Test
+  public void testGetValue() {
+
+    PropertyExpander expander = new PropertyExpander(newProperties());
+    assertEquals("https://www.pharmgkb.org/some/path", expander.getValue("url"));
+    assertEquals("https", expander.getValue("scheme"));
+    assertNull(expander.getValue("missing"));
+  }
+
+  @Test
+  public void testResolve() {
+
+    PropertyExpander expander = new PropertyExpander(newProperties());
+    assertEquals("https://www.pharmgkb.org/some/path/more", expander.resolve("x", "${url}/more"));
+    // can refer to previous value of itself
+    assertEquals("some/path:extra", expander.resolve("path", "${path}:extra"));
+    // unclosed references are left alone
+    assertEquals("${scheme https", expander.resolve("x", "${scheme ${scheme}"));
+    assertEquals("{abc}", expander.resolve("x", "{abc}"));
+  }
+
+  @Test
+  public void testErrors() {
+
+    Map<String, Object> props = newProperties();
+    props.put("a", "${b}");
+    props.put("b", "x${c}");
+    props.put("c", "${a}");
+    props.put("bad", "}${scheme}");
+    props.put("missing", "${nope}");
+    PropertyExpander expander = new PropertyExpander(props);
+
+    BuildException ex = assertThrows(BuildException.class, () -> expander.getValue("a"));
+    assertEquals("Recursive keys: [a] --> [b] --> [c] --> [a]", ex.getMessage());
+    ex = assertThrows(BuildException.class, () -> expander.getValue("bad"));
+    assertTrue(ex.getMessage().startsWith("Found '}' but cannot find matching '${'"));
+    ex = assertThrows(BuildException.class, () -> expander.getValue("missing"));
+    assertEquals("Cannot find value for 'nope' in key 'missing'", ex.getMessage());
+  }
+}
@@ -0,0 +1,97 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileList;
+import org.apache.tools.ant.types.FileSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link PropertyFilesTask}.
+ *
+ * @author Mark Woon
+ */
+public class PropertyFilesTaskTest {
+
+  @Test
+  public void testLoad() throws Exception {
+
+    File dir = Files.createTempDirectory("propertyFiles").toFile();
+    write(new File(dir, "b.properties"), "url=${scheme}://${server.${name}}/${path}\nname=api\n");
+    write(new File(dir, "a.properties"), "scheme=https\nserver.www=www.pharmgkb.org\nname=www\n" +
+        "unicode=caf\\u00e9\n");
+    write(new File(dir, "c.properties"), "path=ignored\n");
+
+    Project project = new Project();
+    project.setUserProperty("path", "some/path");
+    PropertyFilesTask task = new PropertyFilesTask();
+    task.setProject(project);
+    FileSet fileSet = new FileSet();
+    fileSet.setProject(project);
+    fileSet.setDir(dir);
+    fileSet.setIncludes("*.properties");
+    task.add(fileSet);
+    task.execute();
+
+    // a.properties comes first
+    assertEquals("www", project.getProperty("name"));
+    assertEquals("https://www.pharmgkb.org/some/path", project.getProperty("url"));
+    // existing properties aren't changed
+    assertEquals("some/path", project.getProperty("path"));
+    assertEquals("caf\u00e9", project.getProperty("unicode"));
+  }
+
+
+  @Test
+  public void testFileListOrder() throws Exception {
+
+    File dir = Files.createTempDirectory("propertyFiles").toFile();
+    write(new File(dir, "a.properties"), "name=a\n");
+    write(new File(dir, "b.properties"), "name=b\n");
+    write(new File(dir, "c.properties"), "name=c\n");
+
+    // file lists are loaded in the order given, not by name
+    Project project = new Project();
+    PropertyFilesTask task = new PropertyFilesTask();
+    task.setProject(project);
+    FileList fileList = new FileList();
+    fileList.setProject(project);
+    fileList.setDir(dir);
+    fileList.setFiles("c.properties,b.properties,a.properties");
+    task.add(fileList);
+    task.execute();
+    assertEquals("c", project.getProperty("name"));
+  }
+
+
+  @Test
+  public void testErrors() throws Exception {
+
+    File dir = Files.createTempDirectory("propertyFiles").toFile();
+    write(new File(dir, "a.properties"), "a=${b}\nb=${a}\n");
+
+    Project project = new Project();
+    PropertyFilesTask task = new PropertyFilesTask();
+    task.setProject(project);
+    FileSet fileSet = new FileSet();
+    fileSet.setProject(project);
+    fileSet.setDir(dir);
+    fileSet.setIncludes("*.properties");
+    task.add(fileSet);
+    BuildException ex = assertThrows(BuildException.class, task::execute);
+    assertTrue(ex.getMessage().startsWith("Recursive keys: "), ex.getMessage());
+  }
+
+
+  private static void write(File file, String text) throws Exception {
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.ISO_8859_1));
+  }
+}
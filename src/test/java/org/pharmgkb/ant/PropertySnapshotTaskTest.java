@@ -0,0 +1,169 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileList;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.Resources;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link PropertySnapshotTask}.
+ *
+ * @author Mark Woon
+ */
+public class PropertySnapshotTaskTest {
+
+  @Test
+  public void testSnapshot() throws Exception {
+
+    File dir = Files.createTempDirectory("snapshot").toFile();
+    File servers = new File(dir, "servers.properties");
+    File urls = new File(dir, "urls.properties");
+    write(servers, "scheme=https\nserver.www=www.pharmgkb.org\nserver.api=api.pharmgkb.org\nname=www\n");
+    write(urls, "url=${scheme}://${server.${name}}/${path}\nname=ignored\nhome=${user.home}\n");
+    File snapshotFile = new File(dir, "build/snapshot.bin");
+
+    List<String> messages = new ArrayList<>();
+    Project project = run(dir, snapshotFile, messages, servers, urls);
+    assertEquals("https://www.pharmgkb.org/some/path", project.getProperty("url"));
+    assertEquals("www", project.getProperty("name"));
+    assertEquals(System.getProperty("user.home"), project.getProperty("home"));
+    assertTrue(messages.contains("Parsed 2 of 2 property files, expanded 6 of 6 properties"), messages.toString());
+    assertTrue(snapshotFile.exists());
+
+    // nothing changed
+    messages.clear();
+    project = run(dir, snapshotFile, messages, servers, urls);
+    assertEquals("https://www.pharmgkb.org/some/path", project.getProperty("url"));
+    assertTrue(messages.contains("Loaded 6 properties from " + snapshotFile), messages.toString());
+
+    // only the changed property and what refers to it get expanded again
+    write(servers, "scheme=https\nserver.www=www2.pharmgkb.org\nserver.api=api.pharmgkb.org\nname=www\n");
+    messages.clear();
+    project = run(dir, snapshotFile, messages, servers, urls);
+    assertEquals("https://www2.pharmgkb.org/some/path", project.getProperty("url"));
+    assertTrue(messages.contains("Parsed 1 of 2 property files, expanded 2 of 6 properties"), messages.toString());
+
+    // so do changes to properties that came from elsewhere
+    messages.clear();
+    project = new Project();
+    project.setUserProperty("path", "other/path");
+    project = run(project, dir, snapshotFile, messages, servers, urls);
+    assertEquals("https://www2.pharmgkb.org/other/path", project.getProperty("url"));
+    assertTrue(messages.contains("Parsed 0 of 2 property files, expanded 1 of 6 properties"), messages.toString());
+
+    // corrupt counts (right after the magic number and version) are ignored, and everything is loaded again
+    for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+      byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+      ByteBuffer.wrap(bytes).putInt(8, count);
+      Files.write(snapshotFile.toPath(), bytes);
+      messages.clear();
+      project = run(dir, snapshotFile, messages, servers, urls);
+      assertEquals("https://www2.pharmgkb.org/some/path", project.getProperty("url"));
+      assertTrue(messages.contains("Parsed 2 of 2 property files, expanded 6 of 6 properties"), messages.toString());
+    }
+  }
+
+
+  @Test
+  public void testFileListOrder() throws Exception {
+
+    File dir = Files.createTempDirectory("snapshot").toFile();
+    write(new File(dir, "a.properties"), "name=a\n");
+    write(new File(dir, "b.properties"), "name=b\n");
+    File snapshotFile = new File(dir, "build/snapshot.bin");
+
+    // file lists are loaded in the order given, not by name, with or without a snapshot
+    for (int x = 0; x < 2; x += 1) {
+      Project project = new Project();
+      project.setBaseDir(dir);
+      PropertySnapshotTask task = new PropertySnapshotTask();
+      task.setProject(project);
+      task.setFile(snapshotFile);
+      FileList fileList = new FileList();
+      fileList.setProject(project);
+      fileList.setDir(dir);
+      fileList.setFiles("b.properties,a.properties");
+      task.add(fileList);
+      task.execute();
+      assertEquals("b", project.getProperty("name"));
+    }
+  }
+
+
+  private static void write(File file, String text) throws Exception {
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static Project run(File dir, File snapshotFile, List<String> messages, File... files) {
+    Project project = new Project();
+    project.setUserProperty("path", "some/path");
+    return run(project, dir, snapshotFile, messages, files);
+  }
+
+  private static Project run(Project project, File dir, File snapshotFile, List<String> messages, File... files) {
+    project.setBaseDir(dir);
+    project.setProperty("user.home", System.getProperty("user.home"));
+    project.addBuildListener(new MessageCollector(messages));
+    PropertySnapshotTask task = new PropertySnapshotTask();
+    task.setProject(project);
+    task.setFile(snapshotFile);
+    Resources resources = new Resources(project);
+    for (File file : files) {
+      resources.add(new FileResource(file));
+    }
+    task.add(resources);
+    task.execute();
+    return project;
+  }
+
+
+  private static class MessageCollector implements BuildListener {
+    private final List<String> m_messages;
+
+    MessageCollector(List<String> messages) {
+      m_messages = messages;
+    }
+
+    @Override
+    public void messageLogged(BuildEvent event) {
+      m_messages.add(event.getMessage());
+    }
+
+    @Override
+    public void buildStarted(BuildEvent event) {
+    }
+
+    @Override
+    public void buildFinished(BuildEvent event) {
+    }
+
+    @Override
+    public void targetStarted(BuildEvent event) {
+    }
+
+    @Override
+    public void targetFinished(BuildEvent event) {
+    }
+
+    @Override
+    public void taskStarted(BuildEvent event) {
+    }
+
+    @Override
+    public void taskFinished(BuildEvent event) {
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.pharmgkb.ant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+/**
+ * This is a JUnit test for {@link PropertyTemplate}.
+ *
+ * @author Mark Woon
+ */
+public class PropertyTemplateTest {
+
+  @Test
+  public void testCache() {
+
+    PropertyTemplate.Cache cache = new PropertyTemplate.Cache(2);
+    PropertyTemplate used = PropertyTemplate.parse("key", "${used}");
+    cache.put("${used}", used);
+    cache.put("${stale}", PropertyTemplate.parse("key", "${stale}"));
+
+    // fills up the first generation
+    cache.put("${a}", PropertyTemplate.parse("key", "${a}"));
+    assertSame(used, cache.get("${used}"));
+    cache.put("${b}", PropertyTemplate.parse("key", "${b}"));
+    // fills up the second generation, dropping the first
+    cache.put("${c}", PropertyTemplate.parse("key", "${c}"));
+
+    // still cached because it was used recently
+    assertSame(used, cache.get("${used}"));
+    assertNull(cache.get("${stale}"));
+    assertNotNull(cache.get("${c}"));
+
+    // keeps taking new entries once it's full
+    for (int x = 0; x < 10; x += 1) {
+      cache.put("${x" + x + "}", PropertyTemplate.parse("key", "${x" + x + "}"));
+    }
+    assertNotNull(cache.get("${x9}"));
+  }
+}
@@ -0,0 +1,166 @@
+package org.pharmgkb.ant;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
+import org.apache.tools.ant.util.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link ResultFormatter}.
+ *
+ * @author Mark Woon
+ */
+public class ResultFormatterTest {
+
+  @Test
+  public void testConcurrentTests() throws Exception {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ResultFormatter formatter = new ResultFormatter();
+    formatter.setOutput(out);
+    JUnitTest suite = new JUnitTest("org.example.FooTest");
+    formatter.startTestSuite(suite);
+
+    int numTests = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int x = 0; x < numTests; x += 1) {
+        SampleTest test = new SampleTest("test" + x);
+        boolean fail = x % 10 == 0;
+        futures.add(executor.submit(() -> {
+          formatter.startTest(test);
+          if (fail) {
+            formatter.addFailure(test, new AssertionFailedError("boom"));
+          }
+          formatter.endTest(test);
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    formatter.endTestSuite(suite);
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+    int ran = 0;
+    int failed = 0;
+    int errors = 0;
+    for (String line : lines) {
+      if (line.startsWith("Ran [")) {
+        ran += 1;
+        assertTrue(line.endsWith(" ... OK") || line.endsWith(" ... FAILED"), line);
+        if (line.endsWith("FAILED")) {
+          failed += 1;
+        }
+      } else if (line.endsWith("\tFAILED")) {
+        errors += 1;
+      }
+    }
+    assertEquals(numTests, ran);
+    assertEquals(numTests / 10, failed);
+    assertEquals(numTests / 10, errors);
+  }
+
+
+  @Test
+  public void testFilterErrorTrace() throws Exception {
+
+    Throwable error = newWrappedError();
+    Supplier<Throwable> supplier = () -> new IllegalArgumentException("suppressed");
+    error.addSuppressed(supplier.get());
+    error.addSuppressed(new Inner().newError());
+
+    String className = ResultFormatterTest.class.getName();
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    ResultFormatter.filterErrorTrace(writer, className, error);
+    writer.flush();
+    String trace = buffer.toString();
+
+    assertEquals(filterErrorTraceText(className, error), trace);
+    // frames the cause shares with the wrapper are only listed once
+    assertEquals(2, trace.split("newWrappedError", -1).length, trace);
+  }
+
+  private static Throwable newWrappedError() {
+    try {
+      throwWrappedError();
+      return null;
+    } catch (RuntimeException ex) {
+      return ex;
+    }
+  }
+
+  private static void throwWrappedError() {
+    try {
+      throw new IllegalStateException("cause");
+    } catch (IllegalStateException ex) {
+      throw new RuntimeException("wrapper", ex);
+    }
+  }
+
+  /**
+   * The way stack traces used to be filtered, by parsing the printed stack trace.
+   */
+  private static String filterErrorTraceText(String className, Throwable error) throws IOException {
+    Pattern pattern = Pattern.compile("(\\w+\\.)+(\\w+)\\((\\w+).(?:\\w+):(\\d+)\\)");
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    BufferedReader br = new BufferedReader(new StringReader(StringUtils.getStackTrace(error)));
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (line.contains(className)) {
+        Matcher matcher = pattern.matcher(line);
+        if (matcher.find()) {
+          pw.print("    ");
+          pw.print("(" + matcher.group(3) + ") ");
+          pw.print(matcher.group(2) + ": ");
+          pw.println(matcher.group(4));
+        } else {
+          pw.println(line);
+        }
+      }
+    }
+    pw.flush();
+    return sw.toString();
+  }
+
+
+  private static class Inner {
+
+    Throwable newError() {
+      return new UnsupportedOperationException("inner");
+    }
+  }
+
+
+  private static class SampleTest extends TestCase {
+
+    SampleTest(String name) {
+      super(name);
+    }
+  }
+}
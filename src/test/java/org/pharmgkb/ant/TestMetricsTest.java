@@ -0,0 +1,76 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link TestMetrics}.
+ *
+ * @author Mark Woon
+ */
+public class TestMetricsTest {
+
+  @Test
+  public void testFormat() {
+
+    TestMetrics metrics = new TestMetrics(null, null);
+    metrics.addClass("org.example.FooTest", new long[] {3, 1, 0, 2, TimeUnit.SECONDS.toNanos(2)});
+    metrics.addTest(TimeUnit.MILLISECONDS.toNanos(1));
+    metrics.addTest(TimeUnit.MILLISECONDS.toNanos(3));
+    metrics.addTest(TimeUnit.HOURS.toNanos(1));
+
+    String text = metrics.format();
+    assertTrue(text.contains("junit_class_tests{class=\"org.example.FooTest\",status=\"succeeded\"} 3\n"));
+    assertTrue(text.contains("junit_class_tests{class=\"org.example.FooTest\",status=\"skipped\"} 2\n"));
+    assertTrue(text.contains("junit_class_elapsed_seconds{class=\"org.example.FooTest\"} 2.0\n"));
+    // buckets are cumulative and include their upper bound
+    assertTrue(text.contains("junit_test_duration_seconds_bucket{le=\"0.001\"} 1\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_bucket{le=\"0.005\"} 2\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_bucket{le=\"900.0\"} 2\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_bucket{le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_count 3\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_sum 3600.004\n"));
+    assertTrue(text.contains("junit_class_duration_seconds_bucket{le=\"1.0\"} 0\n"));
+    assertTrue(text.contains("junit_class_duration_seconds_bucket{le=\"5.0\"} 1\n"));
+    assertTrue(text.endsWith("# EOF\n"));
+  }
+
+
+  @Test
+  public void testSave() throws Exception {
+
+    File dir = Files.createTempDirectory("testMetrics").toFile();
+    File file = new File(dir, "test-metrics-a.prom");
+    TestMetrics metrics = new TestMetrics("a\"b", null);
+    metrics.addClass("org.example.FooTest", new long[] {1, 0, 0, 0, 1000});
+    metrics.save(file);
+    metrics.save(file);
+
+    String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    assertEquals(metrics.format(), text);
+    assertTrue(text.contains("junit_class_tests{shard=\"a\\\"b\",class=\"org.example.FooTest\",status=\"failed\"} 0\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_count{shard=\"a\\\"b\"} 0\n"));
+    // no temp files left behind
+    assertEquals(1, dir.listFiles().length);
+  }
+
+
+  @Test
+  public void testForkLabel() {
+
+    TestMetrics metrics = new TestMetrics(null, "fork-1");
+    metrics.addClass("org.example.FooTest", new long[] {1, 0, 0, 0, 1000});
+    String text = metrics.format();
+    assertTrue(text.contains("junit_class_tests{fork=\"fork-1\",class=\"org.example.FooTest\",status=\"failed\"} 0\n"));
+    assertTrue(text.contains("junit_class_elapsed_seconds{fork=\"fork-1\",class=\"org.example.FooTest\"} "));
+    assertTrue(text.contains("junit_test_duration_seconds_bucket{fork=\"fork-1\",le=\"+Inf\"} 0\n"));
+    assertTrue(text.contains("junit_test_duration_seconds_count{fork=\"fork-1\"} 0\n"));
+  }
+}
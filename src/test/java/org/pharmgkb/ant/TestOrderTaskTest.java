@@ -0,0 +1,72 @@
+package org.pharmgkb.ant;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.Resources;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * This is a JUnit test for {@link TestOrderTask}.
+ *
+ * @author Mark Woon
+ */
+public class TestOrderTaskTest {
+
+  @Test
+  public void testOrder() throws Exception {
+
+    File reportDir = Files.createTempDirectory("testOrder").toFile();
+    TestIndex index = TestIndex.load(reportDir);
+    index.put("[class:org.example.SlowTest]/[method:a()]", "org.example.SlowTest", "SUCCESSFUL", 5_000, 1000);
+    index.put("[class:org.example.FastTest]/[method:a()]", "org.example.FastTest", "SUCCESSFUL", 1_000, 1000);
+    index.put("[class:org.example.OldFailureTest]/[method:a()]", "org.example.OldFailureTest", "FAILED", 9_000, 1000);
+    index.put("[class:org.example.NewFailureTest]/[method:a()]", "org.example.NewFailureTest", "FAILED", 9_000, 2000);
+    // failed before, but passed the last time it ran
+    index.put("[class:org.example.FixedTest]/[method:a()]", "org.example.FixedTest", "FAILED", 2_000, 1000);
+    index.put("[class:org.example.FixedTest]/[method:a()]", "org.example.FixedTest", "SUCCESSFUL", 2_000, 2000);
+    index.save();
+    assertEquals(5, TestIndex.load(reportDir).getEntries().size());
+
+    File classDir = Files.createTempDirectory("testClasses").toFile();
+    File pkgDir = new File(classDir, "org/example");
+    assertTrue(pkgDir.mkdirs());
+    for (String name : new String[] {"SlowTest", "FastTest", "OldFailureTest", "NewFailureTest", "FixedTest",
+        "BrandNewTest"}) {
+      assertTrue(new File(pkgDir, name + ".class").createNewFile());
+    }
+
+    Project project = new Project();
+    FileSet fileSet = new FileSet();
+    fileSet.setProject(project);
+    fileSet.setDir(classDir);
+    fileSet.setIncludes("**/*Test.class");
+
+    TestOrderTask task = new TestOrderTask();
+    task.setProject(project);
+    task.setReportDir(reportDir);
+    task.add(fileSet);
+    task.setProperty("tests");
+    task.setRefid("tests.ordered");
+    task.execute();
+
+    String expected = "org/example/NewFailureTest.class,org/example/OldFailureTest.class," +
+        "org/example/BrandNewTest.class,org/example/FastTest.class,org/example/FixedTest.class," +
+        "org/example/SlowTest.class";
+    assertEquals(expected, project.getProperty("tests").replace(File.separatorChar, '/'));
+
+    List<String> names = new ArrayList<>();
+    for (Resource resource : project.<Resources>getReference("tests.ordered")) {
+      names.add(resource.getName().replace(File.separatorChar, '/'));
+    }
+    assertEquals(expected, String.join(",", names));
+  }
+}
@@ -0,0 +1,44 @@
+package org.pharmgkb.ant;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * This is a JUnit test for {@link TestShardTask}.
+ *
+ * @author Mark Woon
+ */
+public class TestShardTaskTest {
+
+  @Test
+  public void testPartition() {
+
+    Map<String, Long> weights = new HashMap<>();
+    weights.put("a", 7L);
+    weights.put("b", 5L);
+    weights.put("c", 4L);
+    weights.put("d", 3L);
+    weights.put("e", 1L);
+    List<List<String>> shards = TestShardTask.partition(Arrays.asList("a", "b", "c", "d", "e"), weights::get, 2);
+    assertEquals(Arrays.asList("a", "d"), shards.get(0));
+    assertEquals(Arrays.asList("b", "c", "e"), shards.get(1));
+
+    // unknown weights get the average (4)
+    weights.remove("e");
+    shards = TestShardTask.partition(Arrays.asList("a", "b", "c", "d", "e", "f"), weights::get, 3);
+    assertEquals(Arrays.asList("a", "d"), shards.get(0));
+    assertEquals(Arrays.asList("b", "f"), shards.get(1));
+    assertEquals(Arrays.asList("c", "e"), shards.get(2));
+
+    // no history, so it's just by count
+    shards = TestShardTask.partition(Arrays.asList("a", "b", "c", "d", "e"), s -> null, 2);
+    assertEquals(Arrays.asList("a", "c", "e"), shards.get(0));
+    assertEquals(Arrays.asList("b", "d"), shards.get(1));
+  }
+}